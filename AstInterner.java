@@ -0,0 +1,94 @@
+package variable;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Process-wide hash-consing of template AST nodes and path token strings.
+ *
+ * Structurally equal subtrees compiled from different templates collapse
+ * to one canonical instance, so thousands of cached templates reading
+ * {@code ${SYSTEM.RunDate}} hold a single node for it. Nodes are immutable
+ * once built; the only state they carry, the per-token property caches,
+ * is keyed by receiver class and so fine to share. Canonical instances are
+ * held weakly: once no cached template uses one it is collected.
+ *
+ * Only runs at compile time, never per render, so a lock is cheap enough.
+ */
+final class AstInterner {
+
+    // Canonical instance of each node or string, held only through weak references
+    private static final Map<Object, WeakReference<Object>> CANONICAL = new WeakHashMap<>();
+
+    private static long lookups;
+    private static long reused;
+
+    private AstInterner() { }
+
+    /** Interns every expression tree and text fragment of {@code parts}. */
+    static List<TemplatePart> intern(List<TemplatePart> parts) {
+        List<TemplatePart> out = new ArrayList<>(parts.size());
+        for (TemplatePart p : parts) {
+            if (p instanceof ExprPart) {
+                out.add(new ExprPart(intern(((ExprPart) p).expression())));
+            } else {
+                out.add(new TextPart(canonical(((TextPart) p).text())));
+            }
+        }
+        return out;
+    }
+
+    /** Canonical equivalent of {@code e}, built bottom-up so children are canonical first. */
+    static Expression intern(Expression e) {
+        if (e instanceof FunctionExpression) {
+            FunctionExpression f = (FunctionExpression) e;
+            Expression[] args = f.args();
+            Expression[] interned = new Expression[args.length];
+            boolean changed = false;
+            for (int i = 0; i < args.length; i++) {
+                interned[i] = intern(args[i]);
+                changed |= interned[i] != args[i];
+            }
+            if (changed) e = new FunctionExpression(f.function(), List.of(interned));
+        }
+        if (e instanceof SharedExpression) {
+            // slot indexes are per template; only the shared subtree is interned
+            SharedExpression s = (SharedExpression) e;
+            Expression inner = intern(s.expression());
+            return inner == s.expression() ? s : new SharedExpression(s.index(), inner);
+        }
+        return canonical(e);
+    }
+
+    /** The canonical instance equal to {@code value}, registering it if it's the first. */
+    @SuppressWarnings("unchecked")
+    static synchronized <T> T canonical(T value) {
+        if (value == null) return null;
+        lookups++;
+        WeakReference<Object> ref = CANONICAL.get(value);
+        Object existing = ref == null ? null : ref.get();
+        if (existing != null) {
+            reused++;
+            return (T) existing;
+        }
+        CANONICAL.put(value, new WeakReference<>(value));
+        return value;
+    }
+
+    /** Canonical nodes and strings currently alive. */
+    static synchronized int size() {
+        return CANONICAL.size();
+    }
+
+    /** Lookups that returned an existing instance instead of keeping a new copy. */
+    static synchronized long reusedCount() {
+        return reused;
+    }
+
+    static synchronized long lookupCount() {
+        return lookups;
+    }
+}
@@ -0,0 +1,36 @@
+package variable;
+
+/**
+ * Builtin that walks a collection and evaluates its other arguments once
+ * per element, e.g. {@code FXN.SUM(${Task1.Rows}, row.amount)}.
+ *
+ * The parser reads {@code row} in those arguments as the current element
+ * ({@link #ROW}), and the function binds it through a reused frame. Stages
+ * such as FILTER and MAP return lazy views, so a chain of them runs in a
+ * single pass over the source without intermediate lists.
+ */
+interface CollectionFunction extends TemplateFunction {
+
+    /** Base the parser gives {@code row.x} paths; not writable from templates. */
+    String ROW = "${#row}";
+
+    int ROW_SLOT = VariableSlots.slotOf(ROW);
+
+    /** {@code args[0]} is the source; the rest are per-element expressions over {@link #ROW}. */
+    Object apply(Expression[] args, EvaluationContext ctx);
+
+    @Override
+    default boolean isLazy() {
+        return true;
+    }
+
+    /** Lazy functions are always handed their argument expressions, so this forwards to them. */
+    @Override
+    default Object apply(FunctionArgs args) {
+        if (!(args instanceof FunctionExpression.LazyArgs)) {
+            throw new IllegalArgumentException("FXN." + name() + " needs unevaluated per-element arguments");
+        }
+        FunctionExpression.LazyArgs lazy = (FunctionExpression.LazyArgs) args;
+        return apply(lazy.expressions(), lazy.context());
+    }
+}
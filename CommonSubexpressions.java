@@ -0,0 +1,113 @@
+package variable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compile-time pass that makes structurally identical subexpressions of a
+ * template share one evaluation per render.
+ *
+ * Candidates are paths that walk into a variable and calls whose whole
+ * subtree is pure and doesn't read the current pipeline row. Every
+ * occurrence of a candidate seen more than once is replaced by the same
+ * {@link SharedExpression}; occurrences nested inside an already repeated
+ * subtree don't count again, so only the outermost repeat gets a slot.
+ */
+final class CommonSubexpressions {
+
+    private final Map<Expression, Integer> counts = new HashMap<>();
+    private final Map<Expression, Boolean> pure = new IdentityHashMap<>();
+    private final Map<Expression, SharedExpression> shared = new HashMap<>();
+    private boolean repeats;
+
+    private CommonSubexpressions() { }
+
+    /** Returns the input list when nothing repeats. */
+    static List<TemplatePart> share(List<TemplatePart> parts) {
+        CommonSubexpressions cse = new CommonSubexpressions();
+        for (TemplatePart p : parts) {
+            if (p instanceof ExprPart) cse.count(((ExprPart) p).expression());
+        }
+        if (!cse.repeats) return parts;
+
+        List<TemplatePart> out = new ArrayList<>(parts.size());
+        for (TemplatePart p : parts) {
+            if (p instanceof ExprPart) {
+                Expression e = ((ExprPart) p).expression();
+                Expression r = cse.rewrite(e);
+                out.add(r == e ? p : new ExprPart(r));
+            } else {
+                out.add(p);
+            }
+        }
+        return out;
+    }
+
+    private void count(Expression e) {
+        if (isCandidate(e) && counts.merge(e, 1, Integer::sum) > 1) {
+            repeats = true;
+            return;
+        }
+        if (e instanceof FunctionExpression) {
+            for (Expression arg : ((FunctionExpression) e).args()) count(arg);
+        }
+    }
+
+    private Expression rewrite(Expression e) {
+        if (isCandidate(e) && counts.getOrDefault(e, 0) > 1) {
+            SharedExpression s = shared.get(e);
+            if (s == null) {
+                // inner repeats take their slots first
+                Expression body = rewriteArgs(e);
+                s = new SharedExpression(shared.size(), body);
+                shared.put(e, s);
+            }
+            return s;
+        }
+        return rewriteArgs(e);
+    }
+
+    private Expression rewriteArgs(Expression e) {
+        if (!(e instanceof FunctionExpression)) return e;
+
+        FunctionExpression f = (FunctionExpression) e;
+        Expression[] args = f.args();
+        Expression[] rewritten = new Expression[args.length];
+        boolean changed = false;
+        for (int i = 0; i < args.length; i++) {
+            rewritten[i] = rewrite(args[i]);
+            changed |= rewritten[i] != args[i];
+        }
+        return changed ? new FunctionExpression(f.function(), List.of(rewritten)) : e;
+    }
+
+    // Worth a slot: more than a plain variable read, and the same value wherever it appears
+    private boolean isCandidate(Expression e) {
+        if (e instanceof PathExpression) {
+            PathExpression p = (PathExpression) e;
+            return p.path().length > 0 && p.slot() != CollectionFunction.ROW_SLOT;
+        }
+        return e instanceof FunctionExpression && isPure(e);
+    }
+
+    private boolean isPure(Expression e) {
+        Boolean cached = pure.get(e);
+        if (cached != null) return cached;
+
+        boolean result;
+        if (e instanceof PathExpression) {
+            result = ((PathExpression) e).slot() != CollectionFunction.ROW_SLOT;
+        } else if (e instanceof FunctionExpression) {
+            FunctionExpression f = (FunctionExpression) e;
+            result = f.function().isPure();
+            for (Expression arg : f.args()) result &= isPure(arg);
+        } else {
+            result = e instanceof LiteralExpression;
+        }
+        pure.put(e, result);
+        return result;
+    }
+}
@@ -0,0 +1,11 @@
+package variable;
+
+import java.math.BigDecimal;
+
+/** Builtin comparing two numbers, with the same typed paths as {@link NumericFunction}. */
+interface ComparisonFunction extends TemplateFunction {
+
+    boolean test(double x, double y);
+
+    boolean testExact(BigDecimal x, BigDecimal y);
+}
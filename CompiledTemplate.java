@@ -1,20 +1,243 @@
 package variable;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 
+/**
+ * Parsed template, shared by every store whose cache holds it.
+ *
+ * The memoized result and the constant specialisation depend on the store,
+ * so they live in a {@link StoreState} that each store keeps for the
+ * templates it renders, never on the template itself. Stores taking turns
+ * on one template don't evict each other's, and a template in the shared
+ * cache never keeps a finished run's variables reachable.
+ */
 final class CompiledTemplate {
 
     private final List<TemplatePart> parts;
 
+    // Rendered length seen recently, used to presize the builder
+    private int lengthHint;
+
+    // Set on templates produced by specializedFor(), which never re-specialise
+    private final boolean specialized;
+
+    // Base variable slots read by the template, and whether its result follows
+    // from their versions: no NOW/UUID-like calls and no bases without a shared slot
+    private final int[] readSlots;
+    private final boolean deterministic;
+
+    // Per-render slots needed by the template's SharedExpressions
+    private final int sharedSlots;
+
+    // Built on first renderSql; a race only builds an identical plan twice
+    private volatile SqlPlan sqlPlan;
+
+    // Set once the cache that compiled it has evicted it or declined to keep it
+    private volatile boolean uncached;
+
     CompiledTemplate(List<TemplatePart> parts) {
+        this(parts, false);
+    }
+
+    private CompiledTemplate(List<TemplatePart> parts, boolean specialized) {
         this.parts = parts;
+        this.specialized = specialized;
+
+        Dependencies deps = new Dependencies();
+        for (TemplatePart p : parts) p.visit(deps);
+        this.readSlots = Arrays.stream(deps.slots, 0, deps.count).distinct().toArray();
+        this.deterministic = deps.pure && !deps.localBases;
+        this.sharedSlots = deps.sharedSlots;
+    }
+
+    void markUncached() {
+        uncached = true;
+    }
+
+    boolean isUncached() {
+        return uncached;
+    }
+
+    List<TemplatePart> parts() {
+        return parts;
     }
 
-    String evaluate(VariableStore store) {
-        StringBuilder sb = new StringBuilder();
+    /** Base variable slots the template reads. */
+    int[] readSlots() {
+        return readSlots;
+    }
+
+    /** Result last memoized for the store owning {@code state}, or null. */
+    static String memoizedResult(StoreState state) {
+        Memo m = state == null ? null : state.memo;
+        return m == null ? null : m.result;
+    }
+
+    /** Visits every expression node of every part. */
+    void visit(Consumer<Expression> visitor) {
+        for (TemplatePart p : parts) p.visit(visitor);
+    }
+
+    String evaluate(EvaluationContext ctx) {
+        VariableStore store = ctx.store();
+        if (deterministic && store.memoizeTemplates() && !ctx.hasTempVariables()) {
+            return memoized(ctx, store);
+        }
+        return render(ctx, store);
+    }
+
+    /**
+     * Returns the previous result while none of the variables the template
+     * reads has been added or removed since. Versions are captured before
+     * rendering, so a concurrent write always invalidates the new memo.
+     */
+    private String memoized(EvaluationContext ctx, VariableStore store) {
+        StoreState state = store.templateState(this);
+        Memo m = state.memo;
+        VariableStore.NumericMode mode = store.numericMode();
+        if (m != null && m.mode == mode && m.isCurrent(ctx, readSlots)) return m.result;
+
+        long[] versions = new long[readSlots.length];
+        for (int i = 0; i < readSlots.length; i++) {
+            versions[i] = ctx.version(readSlots[i]);
+        }
+        String result = render(ctx, store);
+        state.memo = new Memo(mode, versions, result);
+        return result;
+    }
+
+    private String render(EvaluationContext ctx, VariableStore store) {
+        CompiledTemplate target = target(store);
+        if (target != this) return target.render(ctx, store);
+        if (sharedSlots != 0) ctx = ctx.withRenderSlots(sharedSlots);
+
+        int hint = lengthHint;
+        StringBuilder sb = new StringBuilder(hint + (hint >> 3) + 16);
         for (TemplatePart p : parts) {
-            sb.append(p.render(store));
+            p.appendTo(ctx, sb);
         }
+        // grow immediately, shrink slowly so one short render doesn't undo the hint
+        int len = sb.length();
+        lengthHint = len >= hint ? len : hint - ((hint - len) >> 3);
         return sb.toString();
     }
+
+    void renderTo(EvaluationContext ctx, Appendable out) throws IOException {
+        CompiledTemplate target = target(ctx.store());
+        if (target.sharedSlots != 0) ctx = ctx.withRenderSlots(target.sharedSlots);
+        for (TemplatePart p : target.parts) {
+            p.renderTo(ctx, out);
+        }
+    }
+
+    /** UTF-8 encodes the rendered template; overflows like any relative put. */
+    void renderTo(EvaluationContext ctx, ByteBuffer out) {
+        CompiledTemplate target = target(ctx.store());
+        if (target.sharedSlots != 0) ctx = ctx.withRenderSlots(target.sharedSlots);
+        for (TemplatePart p : target.parts) {
+            p.renderTo(ctx, out);
+        }
+    }
+
+    /**
+     * Renders {@code template}, this template's source, as SQL with values
+     * bound rather than inlined. The plan comes from its own parse, in which
+     * placeholders that fold to constants stay placeholders, and it never
+     * uses the store-constant specialisation, so no value, constant or not,
+     * becomes statement text.
+     */
+    SqlStatement renderSql(String template, EvaluationContext ctx) {
+        SqlPlan plan = sqlPlan;
+        if (plan == null) sqlPlan = plan = SqlPlan.of(TemplateCompiler.parseForSql(template));
+        return plan.render(ctx);
+    }
+
+    private CompiledTemplate target(VariableStore store) {
+        return !specialized && store.hasConstants() ? specializedFor(store) : this;
+    }
+
+    /**
+     * Version of this template with the store's constants folded in, or
+     * {@code this} when it reads none of them. Rebuilt when any constant of
+     * the store changes.
+     */
+    private CompiledTemplate specializedFor(VariableStore store) {
+        int version = store.constantsVersion();
+        StoreState state = store.templateState(this);
+        Specialization s = state.specialization;
+        if (s != null && s.version == version) return s.template;
+
+        ConstantFolder folder = new ConstantFolder(store.constants());
+        List<TemplatePart> folded = TemplateCompiler.optimize(parts, folder);
+        CompiledTemplate target = folder.foldedBases().isEmpty()
+                ? this
+                : new CompiledTemplate(folded, true);
+
+        state.specialization = new Specialization(version, target);
+        return target;
+    }
+
+    private static final class Dependencies implements Consumer<Expression> {
+        int[] slots = new int[4];
+        int count;
+        boolean pure = true;
+        boolean localBases;
+        int sharedSlots;
+
+        @Override
+        public void accept(Expression e) {
+            if (e instanceof SharedExpression) {
+                sharedSlots = Math.max(sharedSlots, ((SharedExpression) e).index() + 1);
+            } else if (e instanceof PathExpression) {
+                int slot = ((PathExpression) e).slot();
+                if (slot < 0) {
+                    localBases = true;
+                    return;
+                }
+                if (count == slots.length) slots = Arrays.copyOf(slots, count * 2);
+                slots[count++] = slot;
+            } else if (e instanceof FunctionExpression) {
+                pure &= ((FunctionExpression) e).function().isPure();
+            }
+        }
+    }
+
+    /** One store's memo and specialisation of a template; see {@link TemplateCache.Client}. */
+    static final class StoreState {
+        volatile Memo memo;
+        volatile Specialization specialization;
+    }
+
+    private static final class Memo {
+        final VariableStore.NumericMode mode;
+        final long[] versions;
+        final String result;
+
+        Memo(VariableStore.NumericMode mode, long[] versions, String result) {
+            this.mode = mode;
+            this.versions = versions;
+            this.result = result;
+        }
+
+        boolean isCurrent(EvaluationContext ctx, int[] slots) {
+            for (int i = 0; i < slots.length; i++) {
+                if (ctx.version(slots[i]) != versions[i]) return false;
+            }
+            return true;
+        }
+    }
+
+    private static final class Specialization {
+        final int version;
+        final CompiledTemplate template;
+
+        Specialization(int version, CompiledTemplate template) {
+            this.version = version;
+            this.template = template;
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package variable;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compile-time optimisation pass over the expression tree.
+ *
+ * Pure functions whose arguments are all literals are evaluated once and
+ * replaced by their result; {@code IF} with a literal condition collapses to
+ * the taken branch. When given a store's constants, paths rooted at a
+ * constant base are folded too, and the folded bases are recorded so the
+ * specialised template can be dropped when one of them changes.
+ */
+final class ConstantFolder {
+
+    private final Map<String, Object> constants;
+    private final Set<String> foldedBases = new HashSet<>();
+    private boolean changed;
+
+    ConstantFolder() {
+        this(Collections.emptyMap());
+    }
+
+    ConstantFolder(Map<String, Object> constants) {
+        this.constants = constants;
+    }
+
+    Expression fold(Expression e) {
+        Expression folded = e.fold(this);
+        if (folded != e) changed = true;
+        return folded;
+    }
+
+    /** Value of a constant base, or null when the base isn't constant. */
+    Object constant(String base) {
+        Object v = constants.get(base);
+        if (v != null) foldedBases.add(base);
+        return v;
+    }
+
+    boolean changed() {
+        return changed;
+    }
+
+    Set<String> foldedBases() {
+        return foldedBases;
+    }
+
+    /**
+     * Applies {@code function} to literal arguments. Returns null when the call
+     * can't be folded (impure, lazy, non-literal args, or it throws), leaving
+     * the error, if any, to surface at evaluation time as before.
+     */
+    static LiteralExpression evaluate(TemplateFunction function, Expression[] args) {
+        // Numeric results depend on the store's NumericMode, unknown here
+        if (!function.isPure() || function instanceof NumericFunction
+                || function instanceof ComparisonFunction) return null;
+        // Lazy functions expect expressions, not values; IF is folded by its caller
+        if (function.isLazy() || function instanceof CollectionFunction) return null;
+
+        Object[] vals = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            if (!(args[i] instanceof LiteralExpression)) return null;
+            vals[i] = ((LiteralExpression) args[i]).value();
+        }
+
+        try {
+            return new LiteralExpression(function.apply(new FunctionExpression.ValueArgs(vals)));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
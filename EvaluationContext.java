@@ -0,0 +1,271 @@
+package variable;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+
+/**
+ * View of a {@link VariableStore} plus the temp variables layered on top of
+ * it.
+ *
+ * Expressions are evaluated against a context passed down as a parameter,
+ * so resolution does no ThreadLocal lookups. A context can be handed to
+ * another thread as-is: {@link #withVariable} returns a new context and
+ * never changes this one, and {@link #wrap} installs it for code that goes
+ * through the store's own {@code resolveVariables}.
+ *
+ * Temp variables live in one flat open-addressed table per context that
+ * already holds the bindings of the context it was pushed on, so a lookup is
+ * a single probe however deep the overlays are nested. Contexts pushed by
+ * {@link VariableStore#withTempVariable} are recycled when their scope
+ * closes, unless they were handed out by {@code currentContext()}.
+ *
+ * Permanent variables are read from {@code table}: the store's live table,
+ * or a snapshot of it once the context has been {@linkplain #pinned pinned}
+ * for a render.
+ */
+public final class EvaluationContext {
+
+    private static final int[] NO_KEYS = new int[0];
+    private static final Object[] NO_VALUES = new Object[0];
+
+    // Only change when a pooled context is reset or cleared
+    private VariableStore store;
+    private VariableTable table;
+
+    // Open-addressed temp bindings: keys hold slot + 1 so 0 marks a free cell
+    private int[] keys = NO_KEYS;
+    private Object[] values = NO_VALUES;
+    private int size;
+
+    // Values of the template's shared subexpressions, only on a render's own context
+    private Object[] renderSlots;
+
+    // Cell swapped by rebind, and what it reads as while rebound to null
+    private int reusableCell = -1;
+    private Object reusableFallback;
+
+    // Set once the context may be seen by code other than its pushing thread's
+    // own scope; such a context is never recycled
+    boolean escaped;
+
+    EvaluationContext(VariableStore store, VariableTable table) {
+        this.store = store;
+        this.table = table;
+    }
+
+    public VariableStore store() {
+        return store;
+    }
+
+    /** New context in which {@code name} resolves to {@code value}; this one is unchanged. */
+    public EvaluationContext withVariable(String name, Object value) {
+        EvaluationContext ctx = new EvaluationContext(store, table);
+        ctx.escaped = true;
+        ctx.reset(this, 1);
+        ctx.bind(store.slotOfName(name), value);
+        return ctx;
+    }
+
+    /** New context with every entry of {@code variables} bound; this one is unchanged. */
+    public EvaluationContext withVariables(Map<String, ?> variables) {
+        EvaluationContext ctx = new EvaluationContext(store, table);
+        ctx.escaped = true;
+        ctx.reset(this, variables.size());
+        ctx.bindAll(variables);
+        return ctx;
+    }
+
+    public String resolveVariables(String template) {
+        return store.resolveVariables(template, this);
+    }
+
+    /** Runs {@code task} with this context as the current one of whichever thread runs it. */
+    public Runnable wrap(Runnable task) {
+        Objects.requireNonNull(task);
+        escaped = true;
+        return () -> {
+            VariableStore.Scope scope = store.install(this);
+            try {
+                task.run();
+            } finally {
+                scope.close();
+            }
+        };
+    }
+
+    public <T> Callable<T> wrap(Callable<T> task) {
+        Objects.requireNonNull(task);
+        escaped = true;
+        return () -> {
+            VariableStore.Scope scope = store.install(this);
+            try {
+                return task.call();
+            } finally {
+                scope.close();
+            }
+        };
+    }
+
+    /* ========================= INTERNAL ========================= */
+
+    /**
+     * Same context reading permanent variables from a consistent view, so a
+     * render never mixes values from before and after a concurrent write.
+     * Free for stores whose table can't snapshot cheaply. Shares this
+     * context's bindings, so it must not outlive the render.
+     */
+    EvaluationContext pinned() {
+        VariableTable view = table.readView();
+        if (view == table) return this;
+
+        EvaluationContext ctx = new EvaluationContext(store, view);
+        ctx.keys = keys;
+        ctx.values = values;
+        ctx.size = size;
+        return ctx;
+    }
+
+    /**
+     * Same context with {@code count} empty slots for {@link SharedExpression}
+     * values, for one render only.
+     */
+    EvaluationContext withRenderSlots(int count) {
+        EvaluationContext ctx = new EvaluationContext(store, table);
+        ctx.keys = keys;
+        ctx.values = values;
+        ctx.size = size;
+        ctx.renderSlots = new Object[count];
+        return ctx;
+    }
+
+    Object[] renderSlots() {
+        return renderSlots;
+    }
+
+    /**
+     * Context with an extra binding for {@code slot} whose value is swapped
+     * in place by {@link #rebind}. Only for batch loops that own the context
+     * and never hand it to another thread.
+     */
+    EvaluationContext withReusableFrame(int slot) {
+        EvaluationContext ctx = new EvaluationContext(store, table);
+        ctx.reset(this, 1);
+        // Shared subexpressions never read the row, so per-row contexts can keep them
+        ctx.renderSlots = renderSlots;
+        ctx.reusableFallback = lookup(slot);
+        ctx.reusableCell = ctx.cell(slot);
+        return ctx;
+    }
+
+    void rebind(Object value) {
+        values[reusableCell] = value != null ? value : reusableFallback;
+    }
+
+    boolean hasTempVariables() {
+        return size != 0;
+    }
+
+    Object resolveBase(int slot) {
+        if (size != 0) {
+            Object v = lookup(slot);
+            if (v != null) return v;
+        }
+        Object v = table.get(slot);
+        if (v instanceof LazyValue) v = ((LazyValue) v).get();
+        if (v == null) store.missingVariable(slot);
+        return v;
+    }
+
+    long version(int slot) {
+        return table.version(slot);
+    }
+
+    /* ========================= BINDINGS ========================= */
+
+    /**
+     * Empties this context and copies in {@code base}'s table and bindings,
+     * with room for {@code extra} more. Keeps the arrays when they are big
+     * enough, so a recycled context allocates nothing.
+     */
+    void reset(EvaluationContext base, int extra) {
+        store = base.store;
+        table = base.table;
+        reusableCell = -1;
+        reusableFallback = null;
+
+        int capacity = capacityFor(base.size + extra);
+        if (keys.length < capacity) {
+            keys = new int[capacity];
+            values = new Object[capacity];
+        } else if (size != 0) {
+            Arrays.fill(keys, 0);
+            Arrays.fill(values, null);
+        }
+        size = 0;
+
+        int[] from = base.keys;
+        for (int i = 0; i < from.length; i++) {
+            if (from[i] != 0) values[cell(from[i] - 1)] = base.values[i];
+        }
+    }
+
+    /** A null value leaves whatever {@code slot} resolved to before. */
+    void bind(int slot, Object value) {
+        if (value != null) values[cell(slot)] = value;
+    }
+
+    void bindAll(Map<String, ?> variables) {
+        for (Map.Entry<String, ?> e : variables.entrySet()) {
+            bind(store.slotOfName(e.getKey()), e.getValue());
+        }
+    }
+
+    /** Drops bindings and the store so a recycled context keeps neither reachable. */
+    void clear() {
+        if (size != 0) {
+            Arrays.fill(keys, 0);
+            Arrays.fill(values, null);
+            size = 0;
+        }
+        reusableFallback = null;
+        store = null;
+        table = null;
+    }
+
+    private Object lookup(int slot) {
+        int mask = keys.length - 1;
+        if (mask < 0) return null;
+        for (int i = hash(slot) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == slot + 1) return values[i];
+            if (k == 0) return null;
+        }
+    }
+
+    // Cell for slot, claimed if free; capacity is always sized for every binding
+    private int cell(int slot) {
+        int mask = keys.length - 1;
+        for (int i = hash(slot) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == slot + 1) return i;
+            if (k == 0) {
+                keys[i] = slot + 1;
+                size++;
+                return i;
+            }
+        }
+    }
+
+    // At most half full, so probes stay short and always find a free cell
+    private static int capacityFor(int bindings) {
+        int capacity = 4;
+        while (capacity < bindings * 2) capacity <<= 1;
+        return capacity;
+    }
+
+    private static int hash(int slot) {
+        return (slot * 0x9E3779B9) >>> 16;
+    }
+}
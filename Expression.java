@@ -1,5 +1,39 @@
 package variable;
 
+import java.util.function.Consumer;
+
 interface Expression {
-    Object eval(VariableStore store);
+    Object eval(EvaluationContext ctx);
+
+    /**
+     * Value as a double. Nodes that compute numbers override this to skip
+     * boxing the result and parsing it back.
+     */
+    default double evalDouble(EvaluationContext ctx) {
+        return Functions.toNumber(eval(ctx));
+    }
+
+    default long evalLong(EvaluationContext ctx) {
+        return Functions.toLong(eval(ctx));
+    }
+
+    /** Value as a condition, with the same rules as {@code FXN.IF}. */
+    default boolean evalBoolean(EvaluationContext ctx) {
+        return Functions.truthy(eval(ctx));
+    }
+
+    /** Calls {@code visitor} on this node and, for composite nodes, every descendant. */
+    default void visit(Consumer<Expression> visitor) {
+        visitor.accept(this);
+    }
+
+    /** Nesting depth of this subtree; leaves are 1. */
+    default int depth() {
+        return 1;
+    }
+
+    /** Returns a simplified equivalent of this node, or {@code this}. */
+    default Expression fold(ConstantFolder folder) {
+        return this;
+    }
 }
@@ -0,0 +1,15 @@
+package variable;
+
+/**
+ * Arguments passed to a {@link TemplateFunction}.
+ */
+public interface FunctionArgs {
+
+    int size();
+
+    /**
+     * Value of argument {@code i}. For lazy functions every call evaluates the
+     * argument expression again, so read each argument at most once.
+     */
+    Object get(int i);
+}
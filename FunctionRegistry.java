@@ -0,0 +1,84 @@
+package variable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide table of template functions: the built-ins from
+ * {@link Functions} plus everything found through {@link TemplateFunctionProvider}.
+ *
+ * Templates bind to the function object at compile time, so registering a
+ * replacement only affects templates compiled afterwards.
+ */
+public final class FunctionRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(FunctionRegistry.class);
+
+    private static final Map<String, TemplateFunction> FUNCTIONS = new ConcurrentHashMap<>();
+
+    static {
+        for (TemplateFunction f : Functions.builtins()) {
+            FUNCTIONS.put(key(f.name()), f);
+        }
+        for (TemplateFunctionProvider provider : ServiceLoader.load(TemplateFunctionProvider.class)) {
+            for (TemplateFunction f : provider.functions()) {
+                register(f);
+            }
+            log.info("Loaded template functions from {}", provider.getClass().getName());
+        }
+    }
+
+    private FunctionRegistry() { }
+
+    public static void register(TemplateFunction function) {
+        Objects.requireNonNull(function);
+        String name = Objects.requireNonNull(function.name(), "function name").trim();
+        if (name.isEmpty()) throw new IllegalArgumentException("Function name must not be empty");
+        if (function.minArgs() < 0 || function.maxArgs() < function.minArgs()) {
+            throw new IllegalArgumentException("Invalid arity for FXN." + name
+                    + ": min=" + function.minArgs() + ", max=" + function.maxArgs());
+        }
+
+        TemplateFunction previous = FUNCTIONS.put(key(name), function);
+        if (previous != null) {
+            log.warn("Template function FXN.{} replaced by {}", name, function.getClass().getName());
+        }
+    }
+
+    public static boolean isRegistered(String name) {
+        return name != null && FUNCTIONS.containsKey(key(name));
+    }
+
+    /** Registered function, or null; arity is not checked. */
+    static TemplateFunction find(String name) {
+        return FUNCTIONS.get(key(name));
+    }
+
+    /** Binds a call site; throws when the name is unknown or the arity doesn't fit. */
+    static TemplateFunction resolve(String name, int argCount) {
+        TemplateFunction f = FUNCTIONS.get(key(name));
+        if (f == null) throw new IllegalArgumentException("Unknown FXN: " + name);
+
+        if (argCount < f.minArgs() || argCount > f.maxArgs()) {
+            throw new IllegalArgumentException("FXN." + f.name() + " expects " + arity(f)
+                    + " argument(s) but got " + argCount);
+        }
+        return f;
+    }
+
+    private static String arity(TemplateFunction f) {
+        if (f.minArgs() == f.maxArgs()) return String.valueOf(f.minArgs());
+        if (f.maxArgs() == TemplateFunction.VARARGS) return "at least " + f.minArgs();
+        return f.minArgs() + " to " + f.maxArgs();
+    }
+
+    private static String key(String name) {
+        return name.trim().toUpperCase(Locale.ROOT);
+    }
+}
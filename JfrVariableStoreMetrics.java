@@ -0,0 +1,68 @@
+package variable;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits JDK Flight Recorder events; free when no recording enables them.
+ *
+ * Events: {@code variable.TemplateEvaluation}, {@code variable.TemplateCompile}
+ * and {@code variable.MissingVariable}.
+ */
+public final class JfrVariableStoreMetrics implements VariableStoreMetrics {
+
+    @Override
+    public void templateEvaluated(String template, long nanos) {
+        TemplateEvaluationEvent e = new TemplateEvaluationEvent();
+        if (e.isEnabled()) {
+            e.template = template;
+            e.time = nanos;
+            e.commit();
+        }
+    }
+
+    @Override
+    public void templateCompiled(String template, long nanos) {
+        TemplateCompileEvent e = new TemplateCompileEvent();
+        if (e.isEnabled()) {
+            e.template = template;
+            e.time = nanos;
+            e.commit();
+        }
+    }
+
+    @Override
+    public void missingVariable(String name) {
+        MissingVariableEvent e = new MissingVariableEvent();
+        if (e.isEnabled()) {
+            e.variable = name;
+            e.commit();
+        }
+    }
+
+    @Name("variable.TemplateEvaluation")
+    @Label("Template Evaluation")
+    @Category("VariableStore")
+    static final class TemplateEvaluationEvent extends Event {
+        @Label("Template") String template;
+        @Label("Evaluation Time") @Timespan(Timespan.NANOSECONDS) long time;
+    }
+
+    @Name("variable.TemplateCompile")
+    @Label("Template Compile")
+    @Category("VariableStore")
+    static final class TemplateCompileEvent extends Event {
+        @Label("Template") String template;
+        @Label("Compile Time") @Timespan(Timespan.NANOSECONDS) long time;
+    }
+
+    @Name("variable.MissingVariable")
+    @Label("Missing Variable")
+    @Category("VariableStore")
+    static final class MissingVariableEvent extends Event {
+        @Label("Variable") String variable;
+    }
+}
@@ -0,0 +1,34 @@
+package variable;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Permanent variable computed on first read.
+ *
+ * The supplier runs at most once even under concurrent reads, and is
+ * dropped as soon as it has, so whatever it captured can be collected.
+ * Until then the only cost is the supplier itself.
+ */
+final class LazyValue {
+
+    private Supplier<?> supplier;
+    private volatile Object value;
+    private volatile boolean done;
+
+    LazyValue(Supplier<?> supplier) {
+        this.supplier = Objects.requireNonNull(supplier);
+    }
+
+    Object get() {
+        if (done) return value;
+        synchronized (this) {
+            if (!done) {
+                value = supplier.get();
+                supplier = null;
+                done = true;
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,18 @@
+package variable;
+
+import java.math.BigDecimal;
+
+/**
+ * Builtin over one or two numbers that can run without boxing.
+ *
+ * {@link FunctionExpression} calls {@link #applyAsDouble} with operands
+ * from {@link Expression#evalDouble}, or {@link #applyExact} when the
+ * store is in {@link VariableStore.NumericMode#EXACT_DECIMAL} mode. A
+ * missing second operand is passed as zero.
+ */
+interface NumericFunction extends TemplateFunction {
+
+    double applyAsDouble(double x, double y);
+
+    BigDecimal applyExact(BigDecimal x, BigDecimal y);
+}
@@ -0,0 +1,121 @@
+package variable;
+
+import java.util.Map;
+
+/**
+ * One thread's temp-variable scopes on one store.
+ *
+ * {@link VariableStore#withTempVariable} pushes a context here and closing
+ * the returned scope pops it. The stack only exists while a scope is open:
+ * once it unwinds to the store's root it removes itself from the store's
+ * ThreadLocal, so a pooled thread never keeps a finished store reachable.
+ *
+ * Popped scopes go back to a small per-thread free list together with their
+ * context, and so does the emptied stack. Both are shared by every store
+ * and hold no store once released, so in a per-row loop a push/pop pair
+ * only costs the ThreadLocal entry. A context that escaped through
+ * {@code currentContext()} or {@code wrap} is left to its holders and
+ * replaced by a fresh one.
+ */
+final class OverlayStack {
+
+    private static final int MAX_POOLED = 16;
+
+    // Per thread and shared by all stores; holds only cleared contexts
+    private static final ThreadLocal<Pool> POOLS = ThreadLocal.withInitial(Pool::new);
+
+    private final Pool pool;
+
+    // Set while the stack is open: the store's ThreadLocal and root context
+    private ThreadLocal<OverlayStack> owner;
+    private EvaluationContext root;
+    private int depth;
+
+    // Context temp lookups on this thread start from
+    EvaluationContext current;
+
+    private OverlayStack(Pool pool) {
+        this.pool = pool;
+    }
+
+    /** Stack for a store's first scope on this thread, registered in {@code owner}. */
+    static OverlayStack open(ThreadLocal<OverlayStack> owner, EvaluationContext root) {
+        Pool pool = POOLS.get();
+        OverlayStack s = pool.spare != null ? pool.spare : new OverlayStack(pool);
+        pool.spare = null;
+        s.owner = owner;
+        s.root = root;
+        s.current = root;
+        owner.set(s);
+        return s;
+    }
+
+    VariableStore.Scope push(int slot, Object value) {
+        Push p = take(1);
+        p.ctx.bind(slot, value);
+        return p;
+    }
+
+    VariableStore.Scope push(Map<String, ?> variables) {
+        Push p = take(variables.size());
+        p.ctx.bindAll(variables);
+        return p;
+    }
+
+    /** Makes an existing context current, e.g. one passed in through {@code wrap}. */
+    VariableStore.Scope install(EvaluationContext ctx) {
+        EvaluationContext previous = current;
+        current = ctx;
+        depth++;
+        return () -> pop(previous);
+    }
+
+    private Push take(int bindings) {
+        Push p = pool.pooled > 0 ? pool.pushes[--pool.pooled] : new Push();
+        if (p.ctx == null) p.ctx = new EvaluationContext(null, null);
+        p.ctx.reset(current, bindings);
+        p.stack = this;
+        p.previous = current;
+        current = p.ctx;
+        depth++;
+        return p;
+    }
+
+    private void pop(EvaluationContext previous) {
+        current = previous;
+        if (--depth > 0) return;
+
+        // back at root: forget the store so neither the thread nor the pool keeps it
+        owner.remove();
+        owner = null;
+        root = null;
+        current = null;
+        if (pool.spare == null) pool.spare = this;
+    }
+
+    private static final class Pool {
+        final Push[] pushes = new Push[MAX_POOLED];
+        int pooled;
+        OverlayStack spare;
+    }
+
+    /** Scope of one push; reused after it closes, so close it exactly once. */
+    private static final class Push implements VariableStore.Scope {
+        EvaluationContext ctx;
+        EvaluationContext previous;
+        OverlayStack stack;
+
+        @Override
+        public void close() {
+            OverlayStack s = stack;
+            if (s == null) return;
+            stack = null;
+            EvaluationContext prev = previous;
+            previous = null;
+            if (ctx.escaped) ctx = null;
+            else ctx.clear();
+            if (s.pool.pooled < MAX_POOLED) s.pool.pushes[s.pool.pooled++] = this;
+            s.pop(prev);
+        }
+    }
+}
@@ -1,47 +1,98 @@
 package variable;
 
 import java.lang.reflect.Array;
-import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 final class PathExpression implements Expression {
 
     private final String base;
-    private final List<PathToken> path;
+    private final int slot;
+    private final PathToken[] path;
+    private final int hash;
 
     PathExpression(String base, List<PathToken> path) {
-        this.base = base;
-        this.path = path;
+        this.slot = VariableSlots.slotOf(base);
+        // the slot table's copy, so every template naming this base shares one string
+        this.base = slot >= 0 ? VariableSlots.nameOf(slot) : base;
+        this.path = path.toArray(new PathToken[0]);
+        this.hash = 31 * this.base.hashCode() + Arrays.hashCode(this.path);
     }
 
-    public Object eval(VariableStore store) {
-        Object cur = store.resolveBase(base);
+    public Object eval(EvaluationContext ctx) {
+        // -1 once the process-wide slots ran out: each store has its own slot for the name
+        return walk(ctx.resolveBase(slot >= 0 ? slot : ctx.store().slotOf(base)));
+    }
+
+    /** Process-wide slot of the base, or -1 when it only has a per-store one. */
+    int slot() {
+        return slot;
+    }
+
+    String base() {
+        return base;
+    }
 
+    PathToken[] path() {
+        return path;
+    }
+
+    /** Base and path as one {@code ${...}} name, indexes written as dotted segments. */
+    String pathName() {
+        if (path.length == 0) return base;
+        StringBuilder sb = new StringBuilder(base.length() + path.length * 8);
+        sb.append(base, 0, base.length() - 1);
+        for (PathToken t : path) sb.append('.').append(t.value);
+        return sb.append('}').toString();
+    }
+
+    /** Same base and path; two such nodes always read the same value in one render. */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PathExpression)) return false;
+        PathExpression other = (PathExpression) o;
+        return slot == other.slot && base.equals(other.base) && Arrays.equals(path, other.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public Expression fold(ConstantFolder folder) {
+        Object root = folder.constant(base);
+        return root == null ? this : new LiteralExpression(walk(root));
+    }
+
+    private Object walk(Object cur) {
         for (PathToken t : path) {
             if (cur == null) return null;
-            cur = resolveNext(cur, t.value);
+            cur = resolveNext(cur, t);
         }
         return cur;
     }
 
-    private Object resolveNext(Object cur, String key) {
-        try {
-            if (cur instanceof Map)
-                return ((Map<?, ?>) cur).get(key);
+    private static Object resolveNext(Object cur, PathToken t) {
+        if (cur instanceof Map)
+            return ((Map<?, ?>) cur).get(t.value);
 
-            if (cur instanceof List)
-                return ((List<?>) cur).get(Integer.parseInt(key));
-
-            if (cur.getClass().isArray())
-                return Array.get(cur, Integer.parseInt(key));
+        if (cur instanceof List) {
+            List<?> l = (List<?>) cur;
+            return t.index >= 0 && t.index < l.size() ? l.get(t.index) : null;
+        }
 
-            Method m = cur.getClass().getMethod(
-                    "get" + Character.toUpperCase(key.charAt(0)) + key.substring(1));
-            return m.invoke(cur);
+        if (cur instanceof Object[]) {
+            Object[] arr = (Object[]) cur;
+            return t.index >= 0 && t.index < arr.length ? arr[t.index] : null;
+        }
 
-        } catch (Exception e) {
-            return null;
+        if (cur.getClass().isArray()) {
+            return t.index >= 0 && t.index < Array.getLength(cur) ? Array.get(cur, t.index) : null;
         }
+
+        return t.readProperty(cur);
     }
 }
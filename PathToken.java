@@ -1,11 +1,79 @@
 package variable;
 
 final class PathToken {
+
+    // Polymorphic inline cache size before going megamorphic
+    private static final int POLY_LIMIT = 4;
+
     final String value;
     final boolean nullSafe;
 
+    /** Pre-parsed list/array index, or -1 when the token isn't a non-negative int. */
+    final int index;
+
+    private volatile CacheEntry cache;
+    private volatile boolean megamorphic;
+
     PathToken(String value, boolean nullSafe) {
         this.value = value;
         this.nullSafe = nullSafe;
+        this.index = parseIndex(value);
+    }
+
+    /** Bean property access through the per-token inline cache. */
+    Object readProperty(Object receiver) {
+        Class<?> type = receiver.getClass();
+
+        CacheEntry head = cache;
+        for (CacheEntry e = head; e != null; e = e.next) {
+            if (e.type == type) return e.accessor.get(receiver);
+        }
+
+        PropertyAccessor accessor = PropertyAccessor.lookup(type, value);
+        if (!megamorphic) {
+            if (head != null && head.depth >= POLY_LIMIT) {
+                megamorphic = true;
+                cache = null;
+            } else {
+                cache = new CacheEntry(type, accessor, head);
+            }
+        }
+        return accessor.get(receiver);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PathToken)) return false;
+        PathToken other = (PathToken) o;
+        return nullSafe == other.nullSafe && value.equals(other.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode() * 2 + (nullSafe ? 1 : 0);
+    }
+
+    private static int parseIndex(String s) {
+        if (s.isEmpty() || s.length() > 9) return -1;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+        }
+        return Integer.parseInt(s);
+    }
+
+    private static final class CacheEntry {
+        final Class<?> type;
+        final PropertyAccessor accessor;
+        final CacheEntry next;
+        final int depth;
+
+        CacheEntry(Class<?> type, PropertyAccessor accessor, CacheEntry next) {
+            this.type = type;
+            this.accessor = accessor;
+            this.next = next;
+            this.depth = next == null ? 1 : next.depth + 1;
+        }
     }
 }
@@ -0,0 +1,192 @@
+package variable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link VariableTable} backed by a persistent hash array mapped trie keyed
+ * by slot.
+ *
+ * Every write path-copies at most one node per level and swaps the root
+ * with a CAS, so {@link #fork()}, {@link #snapshot()} and {@link #readView()}
+ * just capture the current root: O(1), and readers of a snapshot never see
+ * later writes.
+ * Removed slots stay as tombstone leaves so their version keeps counting.
+ */
+final class PersistentVariableTable implements VariableTable {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final Node EMPTY = new Node(0, new Object[0]);
+
+    private final AtomicReference<Node> root;
+
+    // Shared by all forks of a lineage so versions never repeat across them
+    private final AtomicLong stamps;
+
+    private final boolean readOnly;
+
+    PersistentVariableTable() {
+        this(EMPTY, new AtomicLong(), false);
+    }
+
+    private PersistentVariableTable(Node root, AtomicLong stamps, boolean readOnly) {
+        this.root = new AtomicReference<>(root);
+        this.stamps = stamps;
+        this.readOnly = readOnly;
+    }
+
+    @Override
+    public Object get(int slot) {
+        Leaf leaf = find(root.get(), slot);
+        return leaf == null ? null : leaf.value;
+    }
+
+    @Override
+    public long version(int slot) {
+        Leaf leaf = find(root.get(), slot);
+        return leaf == null ? 0 : leaf.version;
+    }
+
+    @Override
+    public void put(int slot, Object value) {
+        checkWritable();
+        Node cur;
+        Node next;
+        do {
+            cur = root.get();
+            next = assoc(cur, 0, new Leaf(slot, value, stamps.incrementAndGet()));
+        } while (!root.compareAndSet(cur, next));
+    }
+
+    @Override
+    public Object remove(int slot) {
+        checkWritable();
+        Node cur;
+        Leaf old;
+        do {
+            cur = root.get();
+            old = find(cur, slot);
+            if (old == null || old.value == null) return null;
+        } while (!root.compareAndSet(cur, assoc(cur, 0, new Leaf(slot, null, stamps.incrementAndGet()))));
+        return old.value;
+    }
+
+    /**
+     * Tombstones every live slot rather than dropping the trie, so versions
+     * stay monotonic for readers that memoized against them.
+     */
+    @Override
+    public void clear() {
+        checkWritable();
+        Node cur;
+        Node next;
+        do {
+            cur = root.get();
+            next = tombstoneAll(cur);
+        } while (!root.compareAndSet(cur, next));
+    }
+
+    @Override
+    public VariableTable fork() {
+        return new PersistentVariableTable(root.get(), stamps, false);
+    }
+
+    @Override
+    public VariableTable snapshot() {
+        return readOnly ? this : new PersistentVariableTable(root.get(), stamps, true);
+    }
+
+    /** A snapshot, so a render sees the same variables from start to end. */
+    @Override
+    public VariableTable readView() {
+        return snapshot();
+    }
+
+    private void checkWritable() {
+        if (readOnly) throw new UnsupportedOperationException("Variable snapshot is read-only");
+    }
+
+    /* ========================= TRIE ========================= */
+
+    private static Leaf find(Node node, int slot) {
+        int shift = 0;
+        while (true) {
+            int bit = 1 << ((slot >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0) return null;
+
+            Object child = node.children[Integer.bitCount(node.bitmap & (bit - 1))];
+            if (child instanceof Leaf) {
+                Leaf leaf = (Leaf) child;
+                return leaf.slot == slot ? leaf : null;
+            }
+            node = (Node) child;
+            shift += BITS;
+        }
+    }
+
+    private static Node assoc(Node node, int shift, Leaf leaf) {
+        int bit = 1 << ((leaf.slot >>> shift) & MASK);
+        int idx = Integer.bitCount(node.bitmap & (bit - 1));
+
+        if ((node.bitmap & bit) == 0) {
+            Object[] children = new Object[node.children.length + 1];
+            System.arraycopy(node.children, 0, children, 0, idx);
+            children[idx] = leaf;
+            System.arraycopy(node.children, idx, children, idx + 1, node.children.length - idx);
+            return new Node(node.bitmap | bit, children);
+        }
+
+        Object child = node.children[idx];
+        Object replacement;
+        if (child instanceof Leaf) {
+            Leaf existing = (Leaf) child;
+            replacement = existing.slot == leaf.slot
+                    ? leaf
+                    : assoc(assoc(EMPTY, shift + BITS, existing), shift + BITS, leaf);
+        } else {
+            replacement = assoc((Node) child, shift + BITS, leaf);
+        }
+
+        Object[] children = node.children.clone();
+        children[idx] = replacement;
+        return new Node(node.bitmap, children);
+    }
+
+    private Node tombstoneAll(Node node) {
+        Object[] children = new Object[node.children.length];
+        for (int i = 0; i < children.length; i++) {
+            Object child = node.children[i];
+            if (child instanceof Leaf) {
+                Leaf leaf = (Leaf) child;
+                children[i] = leaf.value == null ? leaf : new Leaf(leaf.slot, null, stamps.incrementAndGet());
+            } else {
+                children[i] = tombstoneAll((Node) child);
+            }
+        }
+        return new Node(node.bitmap, children);
+    }
+
+    private static final class Node {
+        final int bitmap;
+        final Object[] children; // Leaf or Node, ordered by bit position
+
+        Node(int bitmap, Object[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+    }
+
+    private static final class Leaf {
+        final int slot;
+        final Object value; // null = removed
+        final long version;
+
+        Leaf(int slot, Object value, long version) {
+            this.slot = slot;
+            this.value = value;
+            this.version = version;
+        }
+    }
+}
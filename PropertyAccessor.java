@@ -0,0 +1,113 @@
+package variable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolved bean property read for one (receiver class, property name) pair.
+ *
+ * Resolution order is getter ({@code getX}, then {@code isX}), record
+ * component, then public field. Classes with no such property resolve to
+ * {@link #NONE} so the miss is cached too.
+ */
+final class PropertyAccessor {
+
+    static final PropertyAccessor NONE = new PropertyAccessor(null);
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    // Megamorphic fallback shared by all call sites: class -> (property -> accessor)
+    private static final ClassValue<Map<String, PropertyAccessor>> BY_CLASS = new ClassValue<>() {
+        @Override
+        protected Map<String, PropertyAccessor> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private final MethodHandle getter;
+
+    private PropertyAccessor(MethodHandle getter) {
+        this.getter = getter;
+    }
+
+    boolean isMissing() {
+        return getter == null;
+    }
+
+    Object get(Object receiver) {
+        if (getter == null) return null;
+        try {
+            return getter.invokeExact(receiver);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            // a failing getter reads as missing, as reflection did; checked ones included
+            return null;
+        }
+    }
+
+    static PropertyAccessor lookup(Class<?> type, String property) {
+        return BY_CLASS.get(type).computeIfAbsent(property, p -> resolve(type, p));
+    }
+
+    private static PropertyAccessor resolve(Class<?> type, String property) {
+        if (property.isEmpty()) return NONE;
+
+        String cap = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        MethodHandle mh = method(type, "get" + cap);
+        if (mh == null) mh = method(type, "is" + cap);
+        if (mh == null) mh = recordComponent(type, property);
+        if (mh == null) mh = field(type, property);
+
+        return mh == null ? NONE : new PropertyAccessor(mh.asType(GETTER_TYPE));
+    }
+
+    private static MethodHandle method(Class<?> type, String name) {
+        try {
+            Method m = type.getMethod(name);
+            if (m.getReturnType() == void.class || Modifier.isStatic(m.getModifiers())) return null;
+            return unreflect(m);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle recordComponent(Class<?> type, String name) {
+        if (!type.isRecord()) return null;
+        for (RecordComponent rc : type.getRecordComponents()) {
+            if (rc.getName().equals(name)) return unreflect(rc.getAccessor());
+        }
+        return null;
+    }
+
+    private static MethodHandle field(Class<?> type, String name) {
+        try {
+            Field f = type.getField(name);
+            if (Modifier.isStatic(f.getModifiers())) return null;
+            return MethodHandles.publicLookup().unreflectGetter(f);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle unreflect(Method m) {
+        try {
+            return MethodHandles.publicLookup().unreflect(m);
+        } catch (IllegalAccessException e) {
+            // public method on a non-public class, e.g. a private record
+            if (!m.trySetAccessible()) return null;
+            try {
+                return MethodHandles.lookup().unreflect(m);
+            } catch (IllegalAccessException again) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package variable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory aggregation of {@link VariableStoreMetrics} callbacks: per-template
+ * latency histograms, compile counts and time, cache hit ratio and
+ * missing-variable counts.
+ *
+ * At most {@code maxTrackedTemplates} distinct templates get their own
+ * timing; later ones are folded into a single {@link #OTHER} bucket.
+ */
+public final class RecordingVariableStoreMetrics implements VariableStoreMetrics {
+
+    public static final String OTHER = "<other>";
+
+    // log2(nanos) buckets: bucket i counts renders in [2^i, 2^(i+1)) ns
+    private static final int BUCKETS = 40;
+
+    private final int maxTrackedTemplates;
+    private final Map<String, Timing> timings = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> missing = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder compiles = new LongAdder();
+    private final LongAdder compileNanos = new LongAdder();
+
+    public RecordingVariableStoreMetrics() {
+        this(1_000);
+    }
+
+    public RecordingVariableStoreMetrics(int maxTrackedTemplates) {
+        if (maxTrackedTemplates <= 0) throw new IllegalArgumentException("maxTrackedTemplates must be > 0");
+        this.maxTrackedTemplates = maxTrackedTemplates;
+    }
+
+    /* ========================= CALLBACKS ========================= */
+
+    @Override
+    public void templateEvaluated(String template, long nanos) {
+        Timing t = timings.get(template);
+        if (t == null) {
+            String key = timings.size() < maxTrackedTemplates ? template : OTHER;
+            t = timings.computeIfAbsent(key, k -> new Timing());
+        }
+        t.record(nanos);
+    }
+
+    @Override
+    public void templateCompiled(String template, long nanos) {
+        compiles.increment();
+        compileNanos.add(nanos);
+    }
+
+    @Override
+    public void cacheHit(String template) {
+        hits.increment();
+    }
+
+    @Override
+    public void cacheMiss(String template) {
+        misses.increment();
+    }
+
+    @Override
+    public void missingVariable(String name) {
+        missing.computeIfAbsent(name, k -> new LongAdder()).increment();
+    }
+
+    /* ========================= QUERIES ========================= */
+
+    public long getCompileCount() { return compiles.sum(); }
+
+    public long getCompileNanos() { return compileNanos.sum(); }
+
+    public double getCacheHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 1.0 : (double) h / total;
+    }
+
+    public Map<String, Long> getMissingVariableCounts() {
+        Map<String, Long> out = new HashMap<>();
+        missing.forEach((k, v) -> out.put(k, v.sum()));
+        return out;
+    }
+
+    public TemplateTiming getTiming(String template) {
+        Timing t = timings.get(template);
+        return t == null ? null : t.snapshot(template);
+    }
+
+    /** The {@code n} templates with the highest mean render time. */
+    public List<TemplateTiming> topSlowest(int n) {
+        List<TemplateTiming> all = new ArrayList<>(timings.size());
+        timings.forEach((k, v) -> all.add(v.snapshot(k)));
+        all.sort(Comparator.comparingDouble(TemplateTiming::getMeanNanos).reversed());
+        return all.size() > n ? new ArrayList<>(all.subList(0, n)) : all;
+    }
+
+    public void reset() {
+        timings.clear();
+        missing.clear();
+        hits.reset();
+        misses.reset();
+        compiles.reset();
+        compileNanos.reset();
+    }
+
+    private static final class Timing {
+        final LongAdder count = new LongAdder();
+        final LongAdder total = new LongAdder();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        volatile long max;
+
+        void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            int bucket = nanos <= 0 ? 0 : Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(nanos));
+            histogram.incrementAndGet(bucket);
+            if (nanos > max) max = nanos; // racy, a lost update only understates max
+        }
+
+        TemplateTiming snapshot(String template) {
+            long[] h = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) h[i] = histogram.get(i);
+            return new TemplateTiming(template, count.sum(), total.sum(), max, h);
+        }
+    }
+
+    /** Render timing of one template. */
+    public static final class TemplateTiming {
+        private final String template;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] histogram;
+
+        TemplateTiming(String template, long count, long totalNanos, long maxNanos, long[] histogram) {
+            this.template = template;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.histogram = histogram;
+        }
+
+        public String getTemplate() { return template; }
+        public long getCount() { return count; }
+        public long getTotalNanos() { return totalNanos; }
+        public long getMaxNanos() { return maxNanos; }
+        public double getMeanNanos() { return count == 0 ? 0 : (double) totalNanos / count; }
+
+        /** Bucket {@code i} counts renders that took between 2^i and 2^(i+1) nanoseconds. */
+        public long[] getHistogram() { return histogram.clone(); }
+
+        /** Upper bound in nanos of the bucket holding quantile {@code q} (0..1). */
+        public long quantileNanos(double q) {
+            long target = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= target && seen > 0) return 1L << (i + 1);
+            }
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "TemplateTiming{count=" + count + ", meanNs=" + (long) getMeanNanos()
+                    + ", maxNs=" + maxNanos + ", template=" + template + "}";
+        }
+    }
+}
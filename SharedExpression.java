@@ -0,0 +1,73 @@
+package variable;
+
+import java.util.function.Consumer;
+
+/**
+ * Occurrence of a subexpression that appears more than once in a template.
+ * The first occurrence evaluated in a render stores its value in the
+ * render's slot {@code index}; the others read it back. Outside a render
+ * with slots (e.g. per-row contexts of a pipeline) it just evaluates.
+ */
+final class SharedExpression implements Expression {
+
+    // Marks a slot that was evaluated to null
+    private static final Object NULL = new Object();
+
+    private final int index;
+    private final Expression expr;
+
+    SharedExpression(int index, Expression expr) {
+        this.index = index;
+        this.expr = expr;
+    }
+
+    @Override
+    public Object eval(EvaluationContext ctx) {
+        Object[] slots = ctx.renderSlots();
+        if (slots == null) return expr.eval(ctx);
+
+        Object v = slots[index];
+        if (v == null) {
+            v = expr.eval(ctx);
+            slots[index] = v == null ? NULL : v;
+            return v;
+        }
+        return v == NULL ? null : v;
+    }
+
+    @Override
+    public double evalDouble(EvaluationContext ctx) {
+        return ctx.renderSlots() == null ? expr.evalDouble(ctx) : Functions.toNumber(eval(ctx));
+    }
+
+    @Override
+    public boolean evalBoolean(EvaluationContext ctx) {
+        return ctx.renderSlots() == null ? expr.evalBoolean(ctx) : Functions.truthy(eval(ctx));
+    }
+
+    int index() {
+        return index;
+    }
+
+    Expression expression() {
+        return expr;
+    }
+
+    @Override
+    public void visit(Consumer<Expression> visitor) {
+        visitor.accept(this);
+        expr.visit(visitor);
+    }
+
+    @Override
+    public int depth() {
+        return expr.depth();
+    }
+
+    @Override
+    public Expression fold(ConstantFolder folder) {
+        Expression folded = folder.fold(expr);
+        if (folded instanceof LiteralExpression) return folded;
+        return folded == expr ? this : new SharedExpression(index, folded);
+    }
+}
@@ -0,0 +1,171 @@
+package variable;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Open-addressed slot-to-value map with a version counter per slot.
+ *
+ * Slots are process-wide, so a store may write slot 200000 while holding
+ * three variables: the table is keyed by slot rather than indexed by it,
+ * and its size follows the variables this store has written, not the
+ * highest slot any template interned.
+ *
+ * Reads are lock-free; writes and growth are serialised on the table. A
+ * slot's version is bumped on every put or remove, so callers can tell
+ * whether a variable changed without comparing values. A removed slot
+ * keeps its cell, empty, so its version keeps counting.
+ *
+ * {@link #fork()} copies the cells, so it is O(variables); use
+ * {@link PersistentVariableTable} when stores are forked often.
+ */
+final class SlotTable implements VariableTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile Cells cells;
+
+    private final boolean readOnly;
+
+    SlotTable() {
+        this(new Cells(INITIAL_CAPACITY), false);
+    }
+
+    private SlotTable(Cells cells, boolean readOnly) {
+        this.cells = cells;
+        this.readOnly = readOnly;
+    }
+
+    @Override
+    public Object get(int slot) {
+        Cells c = cells;
+        int i = c.indexOf(slot);
+        return i < 0 ? null : c.values.get(i);
+    }
+
+    @Override
+    public long version(int slot) {
+        Cells c = cells;
+        int i = c.indexOf(slot);
+        return i < 0 ? 0 : c.versions.get(i);
+    }
+
+    @Override
+    public synchronized void put(int slot, Object value) {
+        checkWritable();
+        Cells c = cells;
+        int i = c.indexOf(slot);
+        if (i < 0) {
+            if (c.size + 1 > c.keys.length() >> 1) cells = c = c.copy(c.keys.length() << 1);
+            i = c.claim(slot, value);
+        } else {
+            c.values.set(i, value);
+        }
+        c.versions.incrementAndGet(i);
+    }
+
+    @Override
+    public synchronized Object remove(int slot) {
+        checkWritable();
+        Cells c = cells;
+        int i = c.indexOf(slot);
+        if (i < 0) return null;
+        Object old = c.values.getAndSet(i, null);
+        if (old != null) c.versions.incrementAndGet(i);
+        return old;
+    }
+
+    /** Drops every value; versions keep counting so stale readers still notice. */
+    @Override
+    public synchronized void clear() {
+        checkWritable();
+        Cells c = cells;
+        for (int i = 0; i < c.keys.length(); i++) {
+            if (c.values.getAndSet(i, null) != null) c.versions.incrementAndGet(i);
+        }
+    }
+
+    @Override
+    public VariableTable fork() {
+        return copy(false);
+    }
+
+    @Override
+    public VariableTable snapshot() {
+        return readOnly ? this : copy(true);
+    }
+
+    /** Always live: a consistent view would need a full copy per render. */
+    @Override
+    public VariableTable readView() {
+        return this;
+    }
+
+    private synchronized SlotTable copy(boolean readOnly) {
+        Cells c = cells;
+        return new SlotTable(c.copy(c.keys.length()), readOnly);
+    }
+
+    private void checkWritable() {
+        if (readOnly) throw new UnsupportedOperationException("Variable snapshot is read-only");
+    }
+
+    /**
+     * One generation of the table; replaced whole when it grows. Keys hold
+     * slot + 1 so 0 marks a free cell, and a key once claimed stays.
+     */
+    private static final class Cells {
+        final AtomicIntegerArray keys;
+        final AtomicReferenceArray<Object> values;
+        final AtomicLongArray versions;
+        int size; // only touched under the table's lock
+
+        Cells(int capacity) {
+            keys = new AtomicIntegerArray(capacity);
+            values = new AtomicReferenceArray<>(capacity);
+            versions = new AtomicLongArray(capacity);
+        }
+
+        int indexOf(int slot) {
+            int mask = keys.length() - 1;
+            for (int i = hash(slot) & mask; ; i = (i + 1) & mask) {
+                int k = keys.get(i);
+                if (k == slot + 1) return i;
+                if (k == 0) return -1;
+            }
+        }
+
+        // Value before key: a reader that finds the key also finds the value
+        int claim(int slot, Object value) {
+            int mask = keys.length() - 1;
+            int i = hash(slot) & mask;
+            while (keys.get(i) != 0) i = (i + 1) & mask;
+            values.set(i, value);
+            keys.set(i, slot + 1);
+            size++;
+            return i;
+        }
+
+        Cells copy(int capacity) {
+            Cells to = new Cells(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < keys.length(); i++) {
+                int k = keys.get(i);
+                if (k == 0) continue;
+                int j = hash(k - 1) & mask;
+                while (to.keys.get(j) != 0) j = (j + 1) & mask;
+                to.values.set(j, values.get(i));
+                to.versions.set(j, versions.get(i));
+                to.keys.set(j, k);
+                to.size++;
+            }
+            return to;
+        }
+
+        private static int hash(int slot) {
+            int h = slot * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
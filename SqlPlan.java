@@ -0,0 +1,320 @@
+package variable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * A template's parts read as SQL, for rendering with bind parameters.
+ *
+ * The text parts are scanned once for quotes and comments, and each
+ * placeholder is classified by where it sits:
+ * <ul>
+ *   <li>bare: bound as one {@code ?}, whatever the value's type</li>
+ *   <li>right after {@code IN (}: a collection or array expands to a list
+ *       of markers, padded to a power of two by repeating the last element
+ *       so varying list sizes share a few statements</li>
+ *   <li>inside a {@code '...'} literal: the whole literal becomes one
+ *       {@code ?} bound to its rendered text</li>
+ *   <li>{@code ${FXN.IDENT(...)}} outside quotes: inlined, and only if it's
+ *       a plain (optionally dotted) identifier</li>
+ *   <li>inside a {@code "..."} or {@code `...`} identifier: inlined, and only
+ *       if it has no quote, backslash or control character, since escaping
+ *       rules for those differ between databases and modes</li>
+ *   <li>inside a comment: dropped, so the statement text never varies with
+ *       a value that can't reach the database anyway</li>
+ * </ul>
+ */
+final class SqlPlan {
+
+    private static final Pattern IDENTIFIER =
+            Pattern.compile("[A-Za-z_][A-Za-z0-9_$]*(\\.[A-Za-z_][A-Za-z0-9_$]*)*");
+
+    private final Segment[] segments;
+
+    private SqlPlan(List<Segment> segments) {
+        this.segments = segments.toArray(new Segment[0]);
+    }
+
+    static SqlPlan of(List<TemplatePart> parts) {
+        Builder b = new Builder();
+        for (TemplatePart p : parts) {
+            if (p instanceof TextPart) b.text(((TextPart) p).text());
+            else b.placeholder(((ExprPart) p).expression());
+        }
+        return new SqlPlan(b.finish());
+    }
+
+    SqlStatement render(EvaluationContext ctx) {
+        StringBuilder sql = new StringBuilder();
+        List<Object> params = new ArrayList<>();
+        for (Segment s : segments) s.render(ctx, sql, params);
+        return new SqlStatement(sql.toString(), params);
+    }
+
+    /** {@code name} if it's safe to inline as an unquoted identifier, else IllegalArgumentException. */
+    static String checkIdentifier(String name) {
+        if (!IDENTIFIER.matcher(name).matches()) {
+            throw new IllegalArgumentException("Not a safe SQL identifier: '" + name + "'");
+        }
+        return name;
+    }
+
+    /* ========================= SCANNING ========================= */
+
+    private enum Mode { SQL, LITERAL, QUOTED_IDENTIFIER, LINE_COMMENT, BLOCK_COMMENT }
+
+    private static final class Builder {
+        private final List<Segment> segments = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+        private Mode mode = Mode.SQL;
+        private char closingQuote;
+
+        // Current '...' literal: as written, and as pieces once it holds a placeholder
+        private final StringBuilder literalRaw = new StringBuilder();
+        private final StringBuilder literalText = new StringBuilder();
+        private final List<Object> literalPieces = new ArrayList<>();
+
+        void text(String t) {
+            for (int i = 0; i < t.length(); i++) {
+                char c = t.charAt(i);
+                char next = i + 1 < t.length() ? t.charAt(i + 1) : 0;
+                switch (mode) {
+                    case SQL:
+                        if (c == '\'') {
+                            mode = Mode.LITERAL;
+                            literalRaw.setLength(0);
+                            literalRaw.append(c);
+                            literalText.setLength(0);
+                            literalPieces.clear();
+                            continue;
+                        }
+                        if (c == '"' || c == '`') {
+                            mode = Mode.QUOTED_IDENTIFIER;
+                            closingQuote = c;
+                        } else if (c == '-' && next == '-') {
+                            mode = Mode.LINE_COMMENT;
+                        } else if (c == '/' && next == '*') {
+                            mode = Mode.BLOCK_COMMENT;
+                            text.append(c);
+                            c = next;
+                            i++;
+                        }
+                        text.append(c);
+                        break;
+                    case LITERAL:
+                        if (c == '\'' && next == '\'') {
+                            literalRaw.append("''");
+                            literalText.append('\'');
+                            i++;
+                        } else if (c == '\'') {
+                            closeLiteral();
+                        } else {
+                            literalRaw.append(c);
+                            literalText.append(c);
+                        }
+                        break;
+                    case QUOTED_IDENTIFIER:
+                        // a doubled quote leaves and re-enters, which is what it means
+                        if (c == closingQuote) mode = Mode.SQL;
+                        text.append(c);
+                        break;
+                    case LINE_COMMENT:
+                        if (c == '\n') mode = Mode.SQL;
+                        text.append(c);
+                        break;
+                    case BLOCK_COMMENT:
+                        text.append(c);
+                        if (c == '*' && next == '/') {
+                            text.append(next);
+                            i++;
+                            mode = Mode.SQL;
+                        }
+                        break;
+                }
+            }
+        }
+
+        void placeholder(Expression e) {
+            switch (mode) {
+                case SQL:
+                    Segment s = isIdent(e) ? new Identifier(e) : afterIn() ? new InList(e) : new Bind(e);
+                    flush();
+                    segments.add(s);
+                    break;
+                case LITERAL:
+                    literalPieces.add(literalText.toString());
+                    literalPieces.add(e);
+                    literalText.setLength(0);
+                    break;
+                case QUOTED_IDENTIFIER:
+                    flush();
+                    segments.add(new QuotedIdentifier(e));
+                    break;
+                default:
+                    // in a comment: nothing to bind, and inlining would vary the text
+            }
+        }
+
+        List<Segment> finish() {
+            if (mode == Mode.LITERAL) {
+                if (!literalPieces.isEmpty()) {
+                    throw new IllegalArgumentException("Unclosed quote around a placeholder in SQL template");
+                }
+                text.append(literalRaw);
+            }
+            flush();
+            return segments;
+        }
+
+        private void closeLiteral() {
+            mode = Mode.SQL;
+            if (literalPieces.isEmpty()) {
+                text.append(literalRaw).append('\'');
+                return;
+            }
+            literalPieces.add(literalText.toString());
+            flush();
+            segments.add(new LiteralBind(literalPieces.toArray()));
+        }
+
+        private void flush() {
+            if (text.length() == 0) return;
+            segments.add(new Text(text.toString()));
+            text.setLength(0);
+        }
+
+        // Whether the SQL just before the placeholder ends with the keyword IN and "(",
+        // which also covers NOT IN
+        private boolean afterIn() {
+            int i = text.length() - 1;
+            while (i >= 0 && Character.isWhitespace(text.charAt(i))) i--;
+            if (i < 0 || text.charAt(i) != '(') return false;
+            i--;
+            while (i >= 0 && Character.isWhitespace(text.charAt(i))) i--;
+            if (i < 1 || !text.substring(i - 1, i + 1).equalsIgnoreCase("IN")) return false;
+            return i < 2 || !isIdentifierPart(text.charAt(i - 2));
+        }
+
+        private static boolean isIdentifierPart(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+        }
+
+        private static boolean isIdent(Expression e) {
+            if (e instanceof SharedExpression) e = ((SharedExpression) e).expression();
+            return e instanceof FunctionExpression && ((FunctionExpression) e).function() == Functions.IDENT;
+        }
+    }
+
+    /* ========================= SEGMENTS ========================= */
+
+    private interface Segment {
+        void render(EvaluationContext ctx, StringBuilder sql, List<Object> params);
+    }
+
+    private static final class Text implements Segment {
+        private final String text;
+
+        Text(String text) { this.text = text; }
+
+        @Override
+        public void render(EvaluationContext ctx, StringBuilder sql, List<Object> params) {
+            sql.append(text);
+        }
+    }
+
+    private static final class Bind implements Segment {
+        private final Expression expr;
+
+        Bind(Expression expr) { this.expr = expr; }
+
+        @Override
+        public void render(EvaluationContext ctx, StringBuilder sql, List<Object> params) {
+            sql.append('?');
+            params.add(expr.eval(ctx));
+        }
+    }
+
+    private static final class InList implements Segment {
+        private final Expression expr;
+
+        InList(Expression expr) { this.expr = expr; }
+
+        @Override
+        public void render(EvaluationContext ctx, StringBuilder sql, List<Object> params) {
+            Object v = expr.eval(ctx);
+            if (v instanceof Collection) {
+                expand(new ArrayList<>((Collection<?>) v), sql, params);
+            } else if (v instanceof Object[]) {
+                expand(Arrays.asList((Object[]) v), sql, params);
+            } else {
+                sql.append('?');
+                params.add(v);
+            }
+        }
+
+        private static void expand(List<?> values, StringBuilder sql, List<Object> params) {
+            int n = values.size();
+            if (n == 0) {
+                sql.append("NULL"); // IN (NULL) matches nothing, IN () doesn't parse
+                return;
+            }
+            int padded = n == 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+            for (int i = 0; i < padded; i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+                params.add(values.get(Math.min(i, n - 1)));
+            }
+        }
+    }
+
+    private static final class LiteralBind implements Segment {
+        // Strings and Expressions, in order
+        private final Object[] pieces;
+
+        LiteralBind(Object[] pieces) { this.pieces = pieces; }
+
+        @Override
+        public void render(EvaluationContext ctx, StringBuilder sql, List<Object> params) {
+            StringBuilder value = new StringBuilder();
+            for (Object p : pieces) {
+                if (p instanceof String) value.append((String) p);
+                else ValueWriter.append(value, ((Expression) p).eval(ctx));
+            }
+            sql.append('?');
+            params.add(value.toString());
+        }
+    }
+
+    private static final class Identifier implements Segment {
+        private final Expression expr;
+
+        Identifier(Expression expr) { this.expr = expr; }
+
+        @Override
+        public void render(EvaluationContext ctx, StringBuilder sql, List<Object> params) {
+            sql.append(checkIdentifier(Objects.toString(expr.eval(ctx), "")));
+        }
+    }
+
+    private static final class QuotedIdentifier implements Segment {
+        private final Expression expr;
+
+        QuotedIdentifier(Expression expr) { this.expr = expr; }
+
+        @Override
+        public void render(EvaluationContext ctx, StringBuilder sql, List<Object> params) {
+            String name = Objects.toString(expr.eval(ctx), "");
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                // e.g. MySQL reads "..." as a string in which \" is an escape
+                if (c == '"' || c == '`' || c == '\\' || Character.isISOControl(c)) {
+                    throw new IllegalArgumentException("Not a safe quoted SQL identifier: '" + name + "'");
+                }
+            }
+            sql.append(name);
+        }
+    }
+}
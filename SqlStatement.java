@@ -0,0 +1,45 @@
+package variable;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SQL rendered with {@code ?} markers in place of its values, plus the
+ * values to bind to them in order.
+ *
+ * The text only changes when the template or its structural parts do, not
+ * with the values, so the database and the driver can reuse a prepared
+ * statement for it.
+ */
+public final class SqlStatement {
+
+    private final String sql;
+    private final List<Object> parameters;
+
+    SqlStatement(String sql, List<Object> parameters) {
+        this.sql = sql;
+        this.parameters = Collections.unmodifiableList(parameters);
+    }
+
+    public String getSql() { return sql; }
+
+    /** Values for the {@code ?} markers, first marker first; may contain nulls. */
+    public List<Object> getParameters() { return parameters; }
+
+    /** Binds every parameter to {@code ps}, which must have been prepared from {@link #getSql}. */
+    public void bind(PreparedStatement ps) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            Object v = parameters.get(i);
+            if (v == null) ps.setNull(i + 1, Types.NULL);
+            else ps.setObject(i + 1, v);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return sql + " " + parameters;
+    }
+}
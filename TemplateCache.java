@@ -0,0 +1,326 @@
+package variable;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size- and weight-bounded cache of compiled templates.
+ *
+ * Reads go straight to a ConcurrentHashMap. Eviction samples a handful of
+ * entries with a rolling iterator and picks the least recently used one as
+ * the victim; a TinyLFU frequency sketch then decides whether the newcomer
+ * is worth more than the victim. One-off strings (e.g. SQL with literal
+ * values baked in) lose that comparison and are never admitted.
+ *
+ * Compiled templates hold no store state, so one cache can serve many
+ * stores: {@link #shared()} is the process-wide instance. Each store looks
+ * templates up through its own {@link Client}, which keeps that store's
+ * per-template state and lets the cache count the compiles and duplicate
+ * copies that sharing saved.
+ */
+final class TemplateCache {
+
+    private static final int SAMPLE_SIZE = 8;
+
+    // Drops a client waits for before sweeping its entries for them
+    private static final int MIN_SWEEP_DROPS = 64;
+
+    private static final AtomicInteger CLIENT_IDS = new AtomicInteger();
+
+    private final int maxEntries;
+    private final long maxWeight;
+
+    private final Map<String, Node> map = new ConcurrentHashMap<>();
+    private final FrequencySketch sketch;
+    private final AtomicLong weight = new AtomicLong();
+
+    // Racy on purpose: only used to order entries roughly by recency.
+    private long clock;
+
+    private Iterator<Node> sweep;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypasses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder compileNanos = new LongAdder();
+
+    // Templates a client got from the cache that another client had compiled
+    private final LongAdder borrowed = new LongAdder();
+    private final LongAdder borrowedCompileNanos = new LongAdder();
+    private final LongAdder borrowedWeight = new LongAdder();
+
+    // Templates evicted, cleared or never admitted; clients sweep when it moves
+    private volatile int drops;
+
+    private final boolean shared;
+
+    TemplateCache(int maxEntries, long maxWeight) {
+        this(maxEntries, maxWeight, false);
+    }
+
+    private TemplateCache(int maxEntries, long maxWeight, boolean shared) {
+        if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries must be > 0");
+        if (maxWeight <= 0) throw new IllegalArgumentException("maxWeight must be > 0");
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.sketch = new FrequencySketch(maxEntries);
+        this.shared = shared;
+    }
+
+    /** Process-wide cache used by every store created without its own bounds. */
+    static TemplateCache shared() {
+        return Shared.INSTANCE;
+    }
+
+    /** New handle for one store's lookups. */
+    Client client() {
+        return new Client();
+    }
+
+    boolean isShared() {
+        return shared;
+    }
+
+    /** Cached template, or null on a miss; either way the lookup counts towards admission. */
+    CompiledTemplate getIfPresent(String template, Client client) {
+        sketch.increment(template);
+        int d = drops;
+        if (d - client.nextSweep >= 0) client.sweep(d);
+
+        Node n = map.get(template);
+        if (n != null) {
+            n.lastAccess = ++clock;
+            hits.increment();
+            if (n.owner != client.id) client.borrow(n);
+            return n.value;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /** Offers a freshly compiled template; the admission policy may decline it. */
+    void put(String template, CompiledTemplate ct, long compileNanos, Client client) {
+        this.compileNanos.add(compileNanos);
+        admit(template, ct, compileNanos, client.id);
+    }
+
+    /** Visits the cached templates without touching their recency or frequency. */
+    void forEach(BiConsumer<String, CompiledTemplate> action) {
+        for (Node n : map.values()) action.accept(n.key, n.value);
+    }
+
+    void recordBypass() {
+        bypasses.increment();
+    }
+
+    /** Drops every entry; for the shared cache that affects every store using it. */
+    void clear() {
+        synchronized (this) {
+            for (Node n : map.values()) drop(n.value);
+            map.clear();
+            weight.set(0);
+            sweep = null;
+        }
+    }
+
+    TemplateCacheStats stats() {
+        return new TemplateCacheStats(
+                hits.sum(), misses.sum(), bypasses.sum(), evictions.sum(), rejections.sum(),
+                compileNanos.sum(), map.size(), weight.get(), shared,
+                borrowed.sum(), borrowedCompileNanos.sum(), borrowedWeight.sum());
+    }
+
+    /* ========================= ADMISSION / EVICTION ========================= */
+
+    private synchronized void admit(String template, CompiledTemplate ct, long nanos, int owner) {
+        if (map.containsKey(template)) {
+            drop(ct);
+            return;
+        }
+
+        int w = weigh(template);
+        if (w > maxWeight) {
+            rejections.increment();
+            drop(ct);
+            return;
+        }
+
+        while (map.size() >= maxEntries || weight.get() + w > maxWeight) {
+            Node victim = sampleVictim();
+            if (victim == null) break;
+
+            if (sketch.frequency(template) <= sketch.frequency(victim.key)) {
+                rejections.increment();
+                drop(ct);
+                return;
+            }
+            if (map.remove(victim.key, victim)) {
+                weight.addAndGet(-victim.weight);
+                evictions.increment();
+                drop(victim.value);
+            }
+        }
+
+        Node n = new Node(template, ct, w, nanos, owner);
+        n.lastAccess = ++clock;
+        map.put(template, n);
+        weight.addAndGet(w);
+    }
+
+    // Called under the lock; marks ct so clients let go of their state for it
+    private void drop(CompiledTemplate ct) {
+        ct.markUncached();
+        drops++;
+    }
+
+    private Node sampleVictim() {
+        Node victim = null;
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            if (sweep == null || !sweep.hasNext()) {
+                sweep = map.values().iterator();
+                if (!sweep.hasNext()) break;
+            }
+            Node n = sweep.next();
+            if (victim == null || n.lastAccess < victim.lastAccess) victim = n;
+        }
+        return victim;
+    }
+
+    private static int weigh(String template) {
+        // chars of the key plus a rough per-entry overhead for the parsed parts
+        return template.length() + 64;
+    }
+
+    private static final class Node {
+        final String key;
+        final CompiledTemplate value;
+        final int weight;
+        final long compileNanos;
+        final int owner;
+        long lastAccess;
+
+        Node(String key, CompiledTemplate value, int weight, long compileNanos, int owner) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.compileNanos = compileNanos;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * One store's view of the cache. Remembers which entries compiled by
+     * other stores it has already used, so each one counts once as a saved
+     * compile and a saved copy, and holds the store's memo and constant
+     * specialisation of each template it renders. Tracks at most maxEntries
+     * of either, and sweeps out templates the cache has dropped once enough
+     * drops have piled up, so a long-lived store doesn't pin them.
+     */
+    final class Client {
+        private final int id = CLIENT_IDS.incrementAndGet();
+        private final Set<Node> used = ConcurrentHashMap.newKeySet();
+        private final Map<CompiledTemplate, CompiledTemplate.StoreState> states = new ConcurrentHashMap<>();
+
+        // Cache's drop count at which to sweep next; racy, a lost update only sweeps again
+        private int nextSweep = drops + MIN_SWEEP_DROPS;
+
+        private void sweep(int now) {
+            used.removeIf(n -> n.value.isUncached());
+            states.keySet().removeIf(CompiledTemplate::isUncached);
+            // amortized: the next sweep waits for a quarter of the entries' worth of drops
+            nextSweep = now + Math.max(MIN_SWEEP_DROPS, (used.size() + states.size()) >> 2);
+        }
+
+        CompiledTemplate.StoreState state(CompiledTemplate ct) {
+            CompiledTemplate.StoreState s = states.get(ct);
+            if (s != null) return s;
+            // only derived state, so start over rather than outgrow the cache
+            if (states.size() >= maxEntries) states.clear();
+            return states.computeIfAbsent(ct, k -> new CompiledTemplate.StoreState());
+        }
+
+        /** State of {@code ct} for this store, or null if it never needed any. */
+        CompiledTemplate.StoreState stateIfPresent(CompiledTemplate ct) {
+            return states.get(ct);
+        }
+
+        private void borrow(Node n) {
+            if (used.contains(n) || used.size() >= maxEntries || !used.add(n)) return;
+            borrowed.increment();
+            borrowedCompileNanos.add(n.compileNanos);
+            borrowedWeight.add(n.weight);
+        }
+    }
+
+    private static final class Shared {
+        static final TemplateCache INSTANCE = new TemplateCache(
+                VariableStore.SHARED_MAX_CACHED_TEMPLATES, VariableStore.SHARED_MAX_CACHED_CHARS, true);
+    }
+
+    /**
+     * Count-min sketch of 4-bit-ish saturating counters with periodic halving,
+     * so popularity ages out. Updates are racy by design.
+     */
+    private static final class FrequencySketch {
+        private static final int MAX_COUNT = 15;
+
+        private final int[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int size = Integer.highestOneBit(Math.max(64, Math.min(expectedEntries, 1 << 24)) * 2 - 1);
+            this.table = new int[size];
+            this.mask = size - 1;
+            this.sampleSize = 10 * size;
+        }
+
+        void increment(String key) {
+            int h = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int idx = index(h, i);
+                if (table[idx] < MAX_COUNT) {
+                    table[idx]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) reset();
+        }
+
+        int frequency(String key) {
+            int h = spread(key.hashCode());
+            int min = MAX_COUNT;
+            for (int i = 0; i < 4; i++) {
+                min = Math.min(min, table[index(h, i)]);
+            }
+            return min;
+        }
+
+        private synchronized void reset() {
+            for (int i = 0; i < table.length; i++) table[i] >>>= 1;
+            additions = 0;
+        }
+
+        private int index(int h, int i) {
+            int x = h * (0x9E3779B9 + 2 * i + 1);
+            return (x ^ (x >>> 16)) & mask;
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 17;
+            h *= 0xED5AD4BB;
+            h ^= h >>> 11;
+            return h;
+        }
+    }
+}
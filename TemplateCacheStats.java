@@ -0,0 +1,89 @@
+package variable;
+
+/**
+ * Point-in-time counters of a {@link VariableStore}'s template cache. For a
+ * shared cache they cover every store using it.
+ */
+public final class TemplateCacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long bypassCount;
+    private final long evictionCount;
+    private final long rejectedCount;
+    private final long totalCompileNanos;
+    private final int size;
+    private final long weight;
+    private final boolean shared;
+    private final long borrowedCount;
+    private final long borrowedCompileNanos;
+    private final long borrowedWeight;
+
+    TemplateCacheStats(long hitCount, long missCount, long bypassCount, long evictionCount,
+                       long rejectedCount, long totalCompileNanos, int size, long weight,
+                       boolean shared, long borrowedCount, long borrowedCompileNanos,
+                       long borrowedWeight) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.bypassCount = bypassCount;
+        this.evictionCount = evictionCount;
+        this.rejectedCount = rejectedCount;
+        this.totalCompileNanos = totalCompileNanos;
+        this.size = size;
+        this.weight = weight;
+        this.shared = shared;
+        this.borrowedCount = borrowedCount;
+        this.borrowedCompileNanos = borrowedCompileNanos;
+        this.borrowedWeight = borrowedWeight;
+    }
+
+    public long getHitCount() { return hitCount; }
+
+    /** Lookups that had to compile; equals the number of compiles. */
+    public long getMissCount() { return missCount; }
+
+    /** Strings with no {@code ${} returned as-is without touching the cache. */
+    public long getBypassCount() { return bypassCount; }
+
+    public long getEvictionCount() { return evictionCount; }
+
+    /** Compiled templates the admission policy declined to keep. */
+    public long getRejectedCount() { return rejectedCount; }
+
+    public long getTotalCompileNanos() { return totalCompileNanos; }
+
+    public int getSize() { return size; }
+
+    /** Sum of entry weights, roughly the cached template characters. */
+    public long getWeight() { return weight; }
+
+    /** Whether this is the process-wide cache rather than one store's own. */
+    public boolean isShared() { return shared; }
+
+    /**
+     * Compiles avoided because a store found a template another store had
+     * compiled: each (store, template) pair counts once.
+     */
+    public long getBorrowedCount() { return borrowedCount; }
+
+    /** Compile time of those templates when first compiled, i.e. parsing time saved. */
+    public long getBorrowedCompileNanos() { return borrowedCompileNanos; }
+
+    /** Weight of those templates: what per-store caches would have held in extra copies. */
+    public long getBorrowedWeight() { return borrowedWeight; }
+
+    public double getHitRate() {
+        long total = hitCount + missCount;
+        return total == 0 ? 1.0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return "TemplateCacheStats{hits=" + hitCount + ", misses=" + missCount
+                + ", bypasses=" + bypassCount + ", evictions=" + evictionCount
+                + ", rejected=" + rejectedCount + ", compileMs=" + totalCompileNanos / 1_000_000
+                + ", size=" + size + ", weight=" + weight + ", shared=" + shared
+                + ", borrowed=" + borrowedCount + ", borrowedCompileMs=" + borrowedCompileNanos / 1_000_000
+                + ", borrowedWeight=" + borrowedWeight + "}";
+    }
+}
@@ -0,0 +1,251 @@
+package variable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Compact binary form of compiled templates, so a restarted worker can map
+ * its templates from disk instead of parsing them again.
+ *
+ * Layout: magic, format version, record count, then one length-prefixed
+ * record per template (source string, then its parts). Functions are stored
+ * by name and re-bound through {@link FunctionRegistry} on load; a record
+ * that no longer binds is skipped and that template compiles on first use.
+ */
+final class TemplateCodec {
+
+    private static final Logger log = LoggerFactory.getLogger(TemplateCodec.class);
+
+    private static final int MAGIC = 0x56544D50; // "VTMP"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte TEXT = 0, EXPR = 1;
+    private static final byte LITERAL = 0, PATH = 1, FUNCTION = 2;
+    private static final byte NULL = 0, STRING = 1, DOUBLE = 2, BOOLEAN = 3, INTEGER = 4, LONG = 5;
+
+    private TemplateCodec() { }
+
+    /**
+     * Writes {@code templates} to {@code file}, replacing it atomically.
+     * Returns how many were written; ones holding a literal of an
+     * unsupported type are left out.
+     */
+    static int write(Path file, Map<String, CompiledTemplate> templates) throws IOException {
+        List<byte[]> records = new ArrayList<>(templates.size());
+        for (Map.Entry<String, CompiledTemplate> e : templates.entrySet()) {
+            try {
+                records.add(encode(e.getKey(), e.getValue()));
+            } catch (IllegalArgumentException ex) {
+                log.debug("Not persisting template: {}", ex.getMessage());
+            }
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(records.size());
+            for (byte[] r : records) {
+                out.writeInt(r.length);
+                out.write(r);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return records.size();
+    }
+
+    /**
+     * Memory-maps {@code file} and hands every template that still binds to
+     * {@code sink}. Returns the number loaded; a file from another format
+     * version loads nothing.
+     */
+    static int read(Path file, BiConsumer<String, CompiledTemplate> sink) throws IOException {
+        ByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+
+        if (buf.remaining() < 12 || buf.getInt() != MAGIC) {
+            throw new IOException("Not a compiled template file: " + file);
+        }
+        int version = buf.getInt();
+        if (version != FORMAT_VERSION) {
+            log.info("Ignoring compiled templates in {}: format {} but expected {}", file, version, FORMAT_VERSION);
+            return 0;
+        }
+
+        int count = buf.getInt();
+        int loaded = 0;
+        for (int i = 0; i < count; i++) {
+            int length = buf.getInt();
+            int end = buf.position() + length;
+            if (length < 0 || end > buf.limit()) throw new IOException("Truncated compiled template file: " + file);
+            try {
+                String template = string(buf);
+                sink.accept(template, TemplateCompiler.finish(parts(buf)));
+                loaded++;
+            } catch (IllegalArgumentException | BufferUnderflowException e) {
+                log.debug("Skipping persisted template: {}", e.toString());
+            }
+            buf.position(end);
+        }
+        return loaded;
+    }
+
+    /* ========================= ENCODING ========================= */
+
+    private static byte[] encode(String template, CompiledTemplate ct) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(template.length() * 2 + 32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            string(out, template);
+            out.writeInt(ct.parts().size());
+            for (TemplatePart p : ct.parts()) {
+                if (p instanceof TextPart) {
+                    out.writeByte(TEXT);
+                    string(out, ((TextPart) p).text());
+                } else {
+                    out.writeByte(EXPR);
+                    expression(out, ((ExprPart) p).expression());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void expression(DataOutputStream out, Expression e) throws IOException {
+        if (e instanceof SharedExpression) {
+            // Sharing is redone on load rather than persisted
+            expression(out, ((SharedExpression) e).expression());
+        } else if (e instanceof LiteralExpression) {
+            out.writeByte(LITERAL);
+            value(out, ((LiteralExpression) e).value());
+        } else if (e instanceof PathExpression) {
+            PathExpression p = (PathExpression) e;
+            out.writeByte(PATH);
+            string(out, p.base());
+            out.writeInt(p.path().length);
+            for (PathToken t : p.path()) {
+                string(out, t.value);
+                out.writeBoolean(t.nullSafe);
+            }
+        } else if (e instanceof FunctionExpression) {
+            FunctionExpression f = (FunctionExpression) e;
+            out.writeByte(FUNCTION);
+            string(out, f.function().name());
+            out.writeInt(f.args().length);
+            for (Expression arg : f.args()) expression(out, arg);
+        } else {
+            throw new IllegalArgumentException("Unsupported expression " + e.getClass().getSimpleName());
+        }
+    }
+
+    private static void value(DataOutputStream out, Object v) throws IOException {
+        if (v == null) {
+            out.writeByte(NULL);
+        } else if (v instanceof String) {
+            out.writeByte(STRING);
+            string(out, (String) v);
+        } else if (v instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) v);
+        } else if (v instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) v);
+        } else if (v instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) v);
+        } else if (v instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) v);
+        } else {
+            throw new IllegalArgumentException("Unsupported literal " + v.getClass().getName());
+        }
+    }
+
+    private static void string(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /* ========================= DECODING ========================= */
+
+    private static List<TemplatePart> parts(ByteBuffer buf) {
+        int n = buf.getInt();
+        List<TemplatePart> parts = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            byte tag = buf.get();
+            if (tag == TEXT) parts.add(new TextPart(string(buf)));
+            else if (tag == EXPR) parts.add(new ExprPart(expression(buf)));
+            else throw new IllegalArgumentException("Bad part tag " + tag);
+        }
+        return parts;
+    }
+
+    private static Expression expression(ByteBuffer buf) {
+        byte tag = buf.get();
+        switch (tag) {
+            case LITERAL:
+                return new LiteralExpression(value(buf));
+            case PATH: {
+                String base = string(buf);
+                int n = buf.getInt();
+                List<PathToken> path = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    String value = AstInterner.canonical(string(buf));
+                    path.add(new PathToken(value, buf.get() != 0));
+                }
+                return new PathExpression(base, path);
+            }
+            case FUNCTION: {
+                String name = string(buf);
+                int n = buf.getInt();
+                List<Expression> args = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) args.add(expression(buf));
+                return new FunctionExpression(FunctionRegistry.resolve(name, n), args);
+            }
+            default:
+                throw new IllegalArgumentException("Bad expression tag " + tag);
+        }
+    }
+
+    private static Object value(ByteBuffer buf) {
+        byte tag = buf.get();
+        switch (tag) {
+            case NULL: return null;
+            case STRING: return string(buf);
+            case DOUBLE: return buf.getDouble();
+            case BOOLEAN: return buf.get() != 0;
+            case INTEGER: return buf.getInt();
+            case LONG: return buf.getLong();
+            default: throw new IllegalArgumentException("Bad literal tag " + tag);
+        }
+    }
+
+    private static String string(ByteBuffer buf) {
+        int n = buf.getInt();
+        if (n < 0 || n > buf.remaining()) throw new IllegalArgumentException("Bad string length " + n);
+        byte[] b = new byte[n];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
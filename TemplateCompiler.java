@@ -5,12 +5,39 @@ import java.util.List;
 
 final class TemplateCompiler {
 
+    /**
+     * Text and placeholders in one left-to-right pass over the template, then
+     * constant folding, interning against every other compiled template and
+     * sharing of repeated subexpressions.
+     */
     static CompiledTemplate compile(String template) {
+        return finish(optimize(parse(template), new ConstantFolder()));
+    }
+
+    /**
+     * Parts for {@link SqlPlan}: folded like {@link #compile}, except that a
+     * placeholder folding to a constant stays an expression part, so the
+     * value is still bound rather than pasted into the statement.
+     */
+    static List<TemplatePart> parseForSql(String template) {
+        ConstantFolder folder = new ConstantFolder();
+        List<TemplatePart> parts = parse(template);
+        for (int i = 0; i < parts.size(); i++) {
+            if (parts.get(i) instanceof ExprPart) {
+                parts.set(i, new ExprPart(folder.fold(((ExprPart) parts.get(i)).expression())));
+            }
+        }
+        return parts;
+    }
+
+    private static List<TemplatePart> parse(String template) {
+        char[] src = template.toCharArray();
+        ExpressionParser parser = new ExpressionParser(src);
         List<TemplatePart> parts = new ArrayList<>();
         int i = 0;
 
-        while (i < template.length()) {
-            int start = template.indexOf("${", i);
+        while (i < src.length) {
+            int start = indexOfPlaceholder(src, i);
             if (start < 0) {
                 parts.add(new TextPart(template.substring(i)));
                 break;
@@ -20,25 +47,51 @@ final class TemplateCompiler {
                 parts.add(new TextPart(template.substring(i, start)));
             }
 
-            int end = findClosing(template, start + 2);
-            String expr = template.substring(start + 2, end);
-            parts.add(new ExprPart(ExpressionParser.parse(expr)));
-
-            i = end + 1;
+            parts.add(new ExprPart(parser.parsePlaceholder(start + 2)));
+            i = parser.position();
         }
-        return new CompiledTemplate(parts);
+        return parts;
+    }
+
+    /** Interns and shares already folded parts, e.g. ones read back from a file. */
+    static CompiledTemplate finish(List<TemplatePart> parts) {
+        return new CompiledTemplate(CommonSubexpressions.share(AstInterner.intern(parts)));
     }
 
-    private static int findClosing(String s, int i) {
-        int depth = 1;
-        while (i < s.length()) {
-            if (s.startsWith("${", i)) depth++;
-            else if (s.charAt(i) == '}') {
-                depth--;
-                if (depth == 0) return i;
+    /**
+     * Folds constant subtrees and merges the adjacent text parts that leaves
+     * behind. Returns the input list when nothing changed.
+     */
+    static List<TemplatePart> optimize(List<TemplatePart> parts, ConstantFolder folder) {
+        List<TemplatePart> out = new ArrayList<>(parts.size());
+        StringBuilder text = null;
+        boolean changed = false;
+
+        for (TemplatePart p : parts) {
+            TemplatePart f = p.fold(folder);
+            changed |= f != p;
+
+            if (f instanceof TextPart) {
+                if (text == null) text = new StringBuilder();
+                else changed = true;
+                text.append(((TextPart) f).text());
+                continue;
+            }
+            if (text != null) {
+                out.add(new TextPart(text.toString()));
+                text = null;
             }
-            i++;
+            out.add(f);
+        }
+        if (text != null) out.add(new TextPart(text.toString()));
+
+        return changed ? out : parts;
+    }
+
+    private static int indexOfPlaceholder(char[] src, int from) {
+        for (int i = from; i < src.length - 1; i++) {
+            if (src[i] == '$' && src[i + 1] == '{') return i;
         }
-        throw new IllegalArgumentException("Unclosed ${ in template");
+        return -1;
     }
 }
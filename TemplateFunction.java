@@ -0,0 +1,36 @@
+package variable;
+
+/**
+ * A function callable from templates as {@code ${FXN.NAME(...)}}.
+ *
+ * Call sites are bound to the implementation when the template is compiled,
+ * so unknown names and wrong argument counts fail at compile time. Custom
+ * functions are contributed through {@link TemplateFunctionProvider}.
+ */
+public interface TemplateFunction {
+
+    int VARARGS = Integer.MAX_VALUE;
+
+    /** Name as written after {@code FXN.}; matched case-insensitively. */
+    String name();
+
+    int minArgs();
+
+    int maxArgs();
+
+    /**
+     * Lazy functions receive unevaluated arguments: each {@link FunctionArgs#get}
+     * evaluates that argument, so unused ones cost nothing. Every call evaluates
+     * it again, so read each argument at most once.
+     */
+    default boolean isLazy() {
+        return false;
+    }
+
+    /** Pure functions return the same result for the same arguments and have no side effects. */
+    default boolean isPure() {
+        return true;
+    }
+
+    Object apply(FunctionArgs args);
+}
@@ -0,0 +1,15 @@
+package variable;
+
+import java.util.Collection;
+
+/**
+ * SPI for contributing template functions.
+ *
+ * Implementations are discovered with {@link java.util.ServiceLoader} through
+ * {@code META-INF/services/variable.TemplateFunctionProvider} when
+ * {@link FunctionRegistry} is first used.
+ */
+public interface TemplateFunctionProvider {
+
+    Collection<? extends TemplateFunction> functions();
+}
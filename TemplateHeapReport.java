@@ -0,0 +1,205 @@
+package variable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimated heap held by the compiled templates of a cache.
+ *
+ * Each template's object graph (parts, expression nodes, path tokens,
+ * strings, the reporting store's memoized result) is walked and sized with
+ * a fixed 64-bit, compressed-oops layout model, so figures are estimates,
+ * not measurements.
+ * Objects reachable from more than one cached template, typically nodes
+ * interned across templates, are not retained by any single one of them:
+ * they are reported as shared, once, instead. Base variable names belong
+ * to the slot table and aren't counted.
+ */
+public final class TemplateHeapReport {
+
+    private static final int HEADER = 12;
+    private static final int REF = 4;
+
+    private final List<Entry> entries;
+    private final long retainedBytes;
+    private final long sharedBytes;
+    private final int internedNodes;
+    private final long internReuses;
+
+    private TemplateHeapReport(List<Entry> entries, long retainedBytes, long sharedBytes,
+                               int internedNodes, long internReuses) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.retainedBytes = retainedBytes;
+        this.sharedBytes = sharedBytes;
+        this.internedNodes = internedNodes;
+        this.internReuses = internReuses;
+    }
+
+    static TemplateHeapReport of(TemplateCache cache, TemplateCache.Client client) {
+        List<String> templates = new ArrayList<>();
+        List<Map<Object, Long>> graphs = new ArrayList<>();
+        Map<Object, Integer> users = new IdentityHashMap<>();
+
+        cache.forEach((template, ct) -> {
+            Map<Object, Long> graph = new IdentityHashMap<>();
+            add(graph, template, string(template));
+            template(graph, ct, client);
+            for (Object o : graph.keySet()) users.merge(o, 1, Integer::sum);
+            templates.add(template);
+            graphs.add(graph);
+        });
+
+        List<Entry> entries = new ArrayList<>(templates.size());
+        long retained = 0;
+        long shared = 0;
+        for (int i = 0; i < templates.size(); i++) {
+            long own = 0;
+            long referenced = 0;
+            for (Map.Entry<Object, Long> e : graphs.get(i).entrySet()) {
+                if (users.get(e.getKey()) == 1) own += e.getValue();
+                else referenced += e.getValue();
+            }
+            entries.add(new Entry(templates.get(i), own, referenced));
+            retained += own;
+        }
+        Map<Object, Boolean> counted = new IdentityHashMap<>();
+        for (Map<Object, Long> graph : graphs) {
+            for (Map.Entry<Object, Long> e : graph.entrySet()) {
+                if (users.get(e.getKey()) > 1 && counted.put(e.getKey(), Boolean.TRUE) == null) {
+                    shared += e.getValue();
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong(Entry::getRetainedBytes).reversed());
+        return new TemplateHeapReport(entries, retained, shared,
+                AstInterner.size(), AstInterner.reusedCount());
+    }
+
+    /** Cached templates, largest retained size first. */
+    public List<Entry> getEntries() { return entries; }
+
+    /** Sum of every template's retained bytes. */
+    public long getRetainedBytes() { return retainedBytes; }
+
+    /** Bytes of objects used by several templates, each object counted once. */
+    public long getSharedBytes() { return sharedBytes; }
+
+    public long getTotalBytes() { return retainedBytes + sharedBytes; }
+
+    /** Canonical AST nodes and token strings alive process-wide. */
+    public int getInternedNodes() { return internedNodes; }
+
+    /** Compiled nodes and strings that were replaced by an existing canonical copy. */
+    public long getInternReuses() { return internReuses; }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("TemplateHeapReport{templates=").append(entries.size())
+                .append(", retained=").append(retainedBytes)
+                .append(", shared=").append(sharedBytes)
+                .append(", interned=").append(internedNodes)
+                .append(", internReuses=").append(internReuses).append('}');
+        for (int i = 0; i < Math.min(10, entries.size()); i++) {
+            sb.append("\n  ").append(entries.get(i));
+        }
+        return sb.toString();
+    }
+
+    public static final class Entry {
+        private final String template;
+        private final long retainedBytes;
+        private final long sharedBytes;
+
+        Entry(String template, long retainedBytes, long sharedBytes) {
+            this.template = template;
+            this.retainedBytes = retainedBytes;
+            this.sharedBytes = sharedBytes;
+        }
+
+        public String getTemplate() { return template; }
+
+        /** Bytes only this template keeps reachable: freed if it were evicted. */
+        public long getRetainedBytes() { return retainedBytes; }
+
+        /** Bytes of objects it uses that other templates use too. */
+        public long getSharedBytes() { return sharedBytes; }
+
+        @Override
+        public String toString() {
+            String t = template.length() > 60 ? template.substring(0, 57) + "..." : template;
+            return retainedBytes + " B retained, " + sharedBytes + " B shared: " + t;
+        }
+    }
+
+    /* ========================= SIZING ========================= */
+
+    private static void template(Map<Object, Long> graph, CompiledTemplate ct, TemplateCache.Client client) {
+        // parts, readSlots, sqlPlan, counters, flags
+        add(graph, ct, align(HEADER + 3 * REF + 2 * 4 + 3));
+        add(graph, ct.parts(), align(HEADER + 2 * 4 + REF) + array(ct.parts().size(), REF));
+        add(graph, ct.readSlots(), array(ct.readSlots().length, 4));
+        String memo = CompiledTemplate.memoizedResult(client.stateIfPresent(ct));
+        if (memo != null) add(graph, memo, string(memo));
+
+        for (TemplatePart p : ct.parts()) {
+            add(graph, p, align(HEADER + REF));
+            if (p instanceof TextPart) {
+                String text = ((TextPart) p).text();
+                add(graph, text, string(text));
+            } else {
+                expression(graph, ((ExprPart) p).expression());
+            }
+        }
+    }
+
+    private static void expression(Map<Object, Long> graph, Expression e) {
+        if (graph.containsKey(e)) return;
+
+        if (e instanceof LiteralExpression) {
+            add(graph, e, align(HEADER + REF));
+            Object v = ((LiteralExpression) e).value();
+            if (v instanceof String) add(graph, v, string((String) v));
+            else if (v instanceof Long || v instanceof Double) add(graph, v, align(HEADER + 8));
+            else if (v instanceof Number) add(graph, v, align(HEADER + 4));
+        } else if (e instanceof PathExpression) {
+            PathToken[] path = ((PathExpression) e).path();
+            add(graph, e, align(HEADER + 3 * REF + 2 * 4));
+            add(graph, path, array(path.length, REF));
+            for (PathToken t : path) {
+                add(graph, t, align(HEADER + 2 * REF + 4 + 2));
+                add(graph, t.value, string(t.value));
+            }
+        } else if (e instanceof FunctionExpression) {
+            Expression[] args = ((FunctionExpression) e).args();
+            add(graph, e, align(HEADER + 5 * REF + 4 + 2));
+            add(graph, args, array(args.length, REF));
+            for (Expression arg : args) expression(graph, arg);
+        } else if (e instanceof SharedExpression) {
+            add(graph, e, align(HEADER + 4 + REF));
+            expression(graph, ((SharedExpression) e).expression());
+        }
+    }
+
+    private static void add(Map<Object, Long> graph, Object o, long bytes) {
+        graph.putIfAbsent(o, bytes);
+    }
+
+    // Compact strings: one byte per char unless some char needs two
+    private static long string(String s) {
+        boolean latin1 = true;
+        for (int i = 0; i < s.length() && latin1; i++) latin1 = s.charAt(i) <= 0xFF;
+        return align(HEADER + REF + 4 + 2) + array(s.length(), latin1 ? 1 : 2);
+    }
+
+    private static long array(int length, int elementSize) {
+        return align(HEADER + 4 + (long) length * elementSize);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
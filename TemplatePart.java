@@ -1,21 +1,60 @@
 package variable;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
 interface TemplatePart {
-    String render(VariableStore store);
+    void appendTo(EvaluationContext ctx, StringBuilder sb);
+
+    void renderTo(EvaluationContext ctx, Appendable out) throws IOException;
+
+    /** UTF-8 encodes the rendered part into {@code out}. */
+    void renderTo(EvaluationContext ctx, ByteBuffer out);
+
+    /** Constant-folded equivalent; a {@link TextPart} once nothing is left to evaluate. */
+    TemplatePart fold(ConstantFolder folder);
+
+    /** Visits every expression node of this part; text parts have none. */
+    default void visit(Consumer<Expression> visitor) { }
 }
 
 final class TextPart implements TemplatePart {
     private final String text;
     TextPart(String t) { this.text = t; }
-    public String render(VariableStore store) { return text; }
+    public void appendTo(EvaluationContext ctx, StringBuilder sb) { sb.append(text); }
+    public void renderTo(EvaluationContext ctx, Appendable out) throws IOException { out.append(text); }
+    public void renderTo(EvaluationContext ctx, ByteBuffer out) { ValueWriter.putUtf8(out, text); }
+    public TemplatePart fold(ConstantFolder folder) { return this; }
+    String text() { return text; }
 }
 
 final class ExprPart implements TemplatePart {
     private final Expression expr;
     ExprPart(Expression e) { this.expr = e; }
 
-    public String render(VariableStore store) {
-        Object v = store.resolveExpression(expr);
-        return v == null ? "" : String.valueOf(v);
+    public void appendTo(EvaluationContext ctx, StringBuilder sb) {
+        ValueWriter.append(sb, expr.eval(ctx));
+    }
+
+    public void renderTo(EvaluationContext ctx, Appendable out) throws IOException {
+        ValueWriter.append(out, expr.eval(ctx));
+    }
+
+    public void renderTo(EvaluationContext ctx, ByteBuffer out) {
+        ValueWriter.put(out, expr.eval(ctx));
+    }
+
+    public void visit(Consumer<Expression> visitor) { expr.visit(visitor); }
+
+    Expression expression() { return expr; }
+
+    public TemplatePart fold(ConstantFolder folder) {
+        Expression folded = folder.fold(expr);
+        if (folded instanceof LiteralExpression) {
+            Object v = ((LiteralExpression) folded).value();
+            return new TextPart(ValueWriter.toString(v));
+        }
+        return folded == expr ? this : new ExprPart(folded);
     }
 }
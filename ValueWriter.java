@@ -0,0 +1,136 @@
+package variable;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes rendered values to their destination without going through an
+ * intermediate String for the common types: integral numbers, booleans,
+ * chars and CharSequences. BigDecimals are written in plain notation, never
+ * with an exponent. Anything else falls back to {@code String.valueOf}.
+ */
+final class ValueWriter {
+
+    private static final int MAX_LONG_DIGITS = 20;
+
+    private ValueWriter() { }
+
+    /** The text {@link #append} would write, for callers that need a String. */
+    static String toString(Object v) {
+        if (v == null) return "";
+        if (v instanceof BigDecimal) return ((BigDecimal) v).toPlainString();
+        return String.valueOf(v);
+    }
+
+    /* ========================= StringBuilder ========================= */
+
+    static void append(StringBuilder sb, Object v) {
+        if (v == null) return;
+        if (v instanceof CharSequence) sb.append((CharSequence) v);
+        else if (v instanceof Integer) sb.append(((Integer) v).intValue());
+        else if (v instanceof Long) sb.append(((Long) v).longValue());
+        else if (v instanceof Double) sb.append(((Double) v).doubleValue());
+        else if (v instanceof Boolean) sb.append(((Boolean) v).booleanValue());
+        else if (v instanceof Character) sb.append(((Character) v).charValue());
+        else if (v instanceof Short || v instanceof Byte) sb.append(((Number) v).intValue());
+        else if (v instanceof BigDecimal) sb.append(((BigDecimal) v).toPlainString());
+        else sb.append(String.valueOf(v));
+    }
+
+    /* ========================= Appendable / Writer ========================= */
+
+    static void append(Appendable out, Object v) throws IOException {
+        if (out instanceof StringBuilder) {
+            append((StringBuilder) out, v);
+            return;
+        }
+        if (v == null) return;
+
+        if (v instanceof CharSequence) out.append((CharSequence) v);
+        else if (isIntegral(v)) appendLong(out, ((Number) v).longValue());
+        else if (v instanceof Boolean) out.append((Boolean) v ? "true" : "false");
+        else if (v instanceof Character) out.append((Character) v);
+        else if (v instanceof BigDecimal) out.append(((BigDecimal) v).toPlainString());
+        else out.append(String.valueOf(v));
+    }
+
+    private static void appendLong(Appendable out, long value) throws IOException {
+        char[] buf = new char[MAX_LONG_DIGITS];
+        int start = formatLong(value, buf);
+        if (out instanceof Writer) {
+            ((Writer) out).write(buf, start, buf.length - start);
+        } else {
+            for (int i = start; i < buf.length; i++) out.append(buf[i]);
+        }
+    }
+
+    /* ========================= UTF-8 ByteBuffer ========================= */
+
+    static void put(ByteBuffer out, Object v) {
+        if (v == null) return;
+
+        if (v instanceof CharSequence) putUtf8(out, (CharSequence) v);
+        else if (isIntegral(v)) putLong(out, ((Number) v).longValue());
+        else if (v instanceof Boolean) putAscii(out, (Boolean) v ? "true" : "false");
+        else if (v instanceof Character && (Character) v < 0x80) out.put((byte) (char) (Character) v);
+        else if (v instanceof BigDecimal) putAscii(out, ((BigDecimal) v).toPlainString());
+        else putUtf8(out, String.valueOf(v));
+    }
+
+    static void putUtf8(ByteBuffer out, CharSequence s) {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out.put((byte) (0xF0 | (cp >> 18)));
+                out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?'); // unpaired surrogate, same as String.getBytes(UTF_8)
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static void putLong(ByteBuffer out, long value) {
+        char[] buf = new char[MAX_LONG_DIGITS];
+        for (int i = formatLong(value, buf); i < buf.length; i++) out.put((byte) buf[i]);
+    }
+
+    private static void putAscii(ByteBuffer out, String s) {
+        for (int i = 0; i < s.length(); i++) out.put((byte) s.charAt(i));
+    }
+
+    /* ========================= HELPERS ========================= */
+
+    private static boolean isIntegral(Object v) {
+        return v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte;
+    }
+
+    /** Writes the digits right-aligned into {@code buf}; returns the start index. */
+    private static int formatLong(long value, char[] buf) {
+        int pos = buf.length;
+        boolean negative = value < 0;
+        // work in negatives so Long.MIN_VALUE doesn't overflow
+        long v = negative ? value : -value;
+        do {
+            buf[--pos] = (char) ('0' - (v % 10));
+            v /= 10;
+        } while (v != 0);
+        if (negative) buf[--pos] = '-';
+        return pos;
+    }
+}
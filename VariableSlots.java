@@ -0,0 +1,126 @@
+package variable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide interning of base variable names ({@code "${Scope.Key}"}) to
+ * dense int slots.
+ *
+ * Templates intern their bases once when compiled and stores intern on
+ * {@code addVariable}, so evaluation probes by int instead of hashing a
+ * string. Stores key their tables by slot rather than index arrays with
+ * it, so names only templates have seen cost them nothing.
+ *
+ * Slots are never reused, so the table is capped at {@link #MAX_SLOTS}
+ * names: workflows that generate names (per-run task ids and the like)
+ * would otherwise grow it for the life of the process. Once it is full,
+ * {@link #slotOf} returns -1 for new names and the store gives them a
+ * {@link Local} slot instead, which goes away with the store.
+ */
+final class VariableSlots {
+
+    static final int MAX_SLOTS = 1 << 16;
+
+    private static final Map<String, Integer> SLOTS = new ConcurrentHashMap<>();
+
+    // Names as callers spell them ("Loop.Row", " ${Loop.Row} ") so binding a
+    // temp variable in a loop doesn't normalize the name every time; capped
+    // so generated names can't grow it without bound
+    private static final Map<String, Integer> SPELLINGS = new ConcurrentHashMap<>();
+    private static final int MAX_SPELLINGS = 4096;
+
+    private static volatile String[] names = new String[256];
+    private static int next;
+
+    private VariableSlots() { }
+
+    /** Slot of {@code base}, interned if there's room, else -1. */
+    static int slotOf(String base) {
+        Integer slot = SLOTS.get(base);
+        return slot != null ? slot : intern(base);
+    }
+
+    /** Slot of an unnormalized name such as {@code "Loop.Row"}, or -1 like {@link #slotOf}. */
+    static int slotOfName(String name) {
+        Integer slot = SPELLINGS.get(name);
+        if (slot != null) return slot;
+
+        int s = slotOf(VariableStore.normalizeBase(name));
+        if (s >= 0 && SPELLINGS.size() < MAX_SPELLINGS) SPELLINGS.put(name, s);
+        return s;
+    }
+
+    /** Slot of {@code base} if some template or store has used it, else -1. */
+    static int existingSlot(String base) {
+        Integer slot = SLOTS.get(base);
+        return slot != null ? slot : -1;
+    }
+
+    static String nameOf(int slot) {
+        String[] n = names;
+        return slot >= 0 && slot < n.length ? n[slot] : null;
+    }
+
+    private static synchronized int intern(String base) {
+        Integer slot = SLOTS.get(base);
+        if (slot != null) return slot;
+        if (next == MAX_SLOTS) return -1;
+
+        int s = next++;
+        String[] n = names;
+        if (s >= n.length) {
+            String[] grown = new String[n.length * 2];
+            System.arraycopy(n, 0, grown, 0, n.length);
+            n = grown;
+        }
+        n[s] = base;
+        names = n;
+        SLOTS.put(base, s);
+        return s;
+    }
+
+    /**
+     * Slots for names that didn't fit the process-wide table, numbered from
+     * {@link #MAX_SLOTS} up. One per store, shared with its forks and
+     * snapshots since they copy its variables.
+     */
+    static final class Local {
+        private final Map<String, Integer> slots = new ConcurrentHashMap<>();
+        private volatile String[] names = new String[16];
+        private int next;
+
+        int slotOf(String base) {
+            Integer slot = slots.get(base);
+            return slot != null ? slot : intern(base);
+        }
+
+        int existingSlot(String base) {
+            Integer slot = slots.get(base);
+            return slot != null ? slot : -1;
+        }
+
+        String nameOf(int slot) {
+            String[] n = names;
+            int i = slot - MAX_SLOTS;
+            return i >= 0 && i < n.length ? n[i] : null;
+        }
+
+        private synchronized int intern(String base) {
+            Integer slot = slots.get(base);
+            if (slot != null) return slot;
+
+            int i = next++;
+            String[] n = names;
+            if (i >= n.length) {
+                String[] grown = new String[n.length * 2];
+                System.arraycopy(n, 0, grown, 0, n.length);
+                n = grown;
+            }
+            n[i] = base;
+            names = n;
+            slots.put(base, MAX_SLOTS + i);
+            return MAX_SLOTS + i;
+        }
+    }
+}
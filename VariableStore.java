@@ -3,8 +3,15 @@ package variable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 public class VariableStore {
 
@@ -16,30 +23,131 @@ public class VariableStore {
         THROW_ERROR
     }
 
-    private static final int MAX_EXPR_DEPTH = 50;
+    /** Arithmetic used by ADD, SUB, ROUND, ISGREATERTHAN and the other numeric functions. */
+    public enum NumericMode {
+        /** Binary floating point; results are Doubles. */
+        DOUBLE,
+        /** BigDecimal throughout, e.g. for amounts templated into SQL; DIV uses 34 digits. */
+        EXACT_DECIMAL
+    }
+
+    /** How permanent variables are stored. */
+    public enum Storage {
+        /** Mutable slot array: fastest reads and writes, {@link #fork()} copies every slot. */
+        SLOT_ARRAY,
+        /**
+         * Persistent trie: {@link #fork()} and {@link #snapshot()} are O(1)
+         * and each render reads one consistent snapshot of the variables.
+         */
+        PERSISTENT
+    }
+
+    /** Where compiled templates are cached. */
+    public enum TemplateCaching {
+        /**
+         * Process-wide cache shared by every store using it, so concurrent
+         * runs of the same workflow parse each template once between them.
+         */
+        SHARED,
+        /** Cache owned by this store (and its forks), bounded on its own; the default. */
+        PER_STORE
+    }
+
+    public static final int DEFAULT_MAX_CACHED_TEMPLATES = 10_000;
+    public static final long DEFAULT_MAX_CACHED_CHARS = 16L * 1024 * 1024;
+
+    /** Bounds of the {@link TemplateCaching#SHARED} cache. */
+    public static final int SHARED_MAX_CACHED_TEMPLATES = 50_000;
+    public static final long SHARED_MAX_CACHED_CHARS = 64L * 1024 * 1024;
 
     /* ========================= STATE ========================= */
 
-    private final Map<String, Object> permanent = new ConcurrentHashMap<>();
+    // Indexed by VariableSlots slot of the normalized "${Scope.Key}" name
+    private final VariableTable permanent;
+
+    // Slots of names past VariableSlots.MAX_SLOTS; shared with forks, which copy permanent
+    private final VariableSlots.Local localSlots;
+
+    // Subset of permanent marked immutable; folded into specialised templates
+    private final Map<String, Object> constants;
+    // Bumped under the constants lock after each change, so a specialisation
+    // folded from an older value is never cached under the newer version
+    private final AtomicInteger constantsVersion = new AtomicInteger();
 
-    private final ThreadLocal<Deque<Map<String, Object>>> overlays =
-            ThreadLocal.withInitial(ArrayDeque::new);
+    // Context with no temp variables; current falls back to it
+    private final EvaluationContext root;
 
-    private final Map<String, CompiledTemplate> templateCache =
-            new ConcurrentHashMap<>();
+    // Only consulted once per resolveVariables call, never per lookup; set on
+    // a thread only while it has temp scopes open on this store
+    private final ThreadLocal<OverlayStack> overlays = new ThreadLocal<>();
 
-    private final ThreadLocal<Integer> exprDepth =
-            ThreadLocal.withInitial(() -> 0);
+    private final TemplateCache templateCache;
+    private final TemplateCache.Client cacheClient;
 
     private volatile MissingVariablePolicy missingVariablePolicy =
             MissingVariablePolicy.REPLACE_WITH_EMPTY;
 
+    private volatile boolean memoizeTemplates;
+
+    private volatile NumericMode numericMode = NumericMode.DOUBLE;
+
+    private volatile VariableStoreMetrics metrics = VariableStoreMetrics.NOOP;
+
     /* ========================= CONSTRUCTORS ========================= */
 
-    public VariableStore() { }
+    public VariableStore() {
+        this(MissingVariablePolicy.REPLACE_WITH_EMPTY);
+    }
 
+    /** Uses a {@link TemplateCaching#PER_STORE} cache with the default bounds. */
     public VariableStore(MissingVariablePolicy policy) {
+        this(policy, Storage.SLOT_ARRAY);
+    }
+
+    /** Uses a {@link TemplateCaching#PER_STORE} cache with the given bounds. */
+    public VariableStore(MissingVariablePolicy policy, int maxCachedTemplates, long maxCachedChars) {
+        this(policy, maxCachedTemplates, maxCachedChars, Storage.SLOT_ARRAY);
+    }
+
+    public VariableStore(MissingVariablePolicy policy, Storage storage) {
+        this(policy, storage, TemplateCaching.PER_STORE);
+    }
+
+    public VariableStore(MissingVariablePolicy policy, Storage storage, TemplateCaching caching) {
+        this(policy, storage, Objects.requireNonNull(caching) == TemplateCaching.SHARED
+                ? TemplateCache.shared()
+                : new TemplateCache(DEFAULT_MAX_CACHED_TEMPLATES, DEFAULT_MAX_CACHED_CHARS));
+    }
+
+    public VariableStore(MissingVariablePolicy policy, int maxCachedTemplates, long maxCachedChars,
+                         Storage storage) {
+        this(policy, storage, new TemplateCache(maxCachedTemplates, maxCachedChars));
+    }
+
+    private VariableStore(MissingVariablePolicy policy, Storage storage, TemplateCache templateCache) {
         this.missingVariablePolicy = Objects.requireNonNull(policy);
+        this.permanent = Objects.requireNonNull(storage) == Storage.PERSISTENT
+                ? new PersistentVariableTable()
+                : new SlotTable();
+        this.localSlots = new VariableSlots.Local();
+        this.constants = new ConcurrentHashMap<>();
+        this.root = new EvaluationContext(this, permanent);
+        this.templateCache = templateCache;
+        this.cacheClient = templateCache.client();
+    }
+
+    // fork/snapshot: same config and compiled templates, own variables
+    private VariableStore(VariableStore parent, VariableTable permanent) {
+        this.missingVariablePolicy = parent.missingVariablePolicy;
+        this.memoizeTemplates = parent.memoizeTemplates;
+        this.numericMode = parent.numericMode;
+        this.metrics = parent.metrics;
+        this.permanent = permanent;
+        this.localSlots = parent.localSlots;
+        this.constants = new ConcurrentHashMap<>(parent.constants);
+        this.root = new EvaluationContext(this, permanent);
+        this.templateCache = parent.templateCache;
+        this.cacheClient = templateCache.client();
     }
 
     /* ========================= CONFIG ========================= */
@@ -53,92 +161,472 @@ public class VariableStore {
         return missingVariablePolicy;
     }
 
+    /**
+     * When enabled, a template that calls no impure function (NOW, UUID, ...)
+     * returns its previous result as long as none of the variables it reads
+     * was added or removed since. Changes made inside a stored object (e.g.
+     * adding a row to a stored list) are not seen, so only enable this when
+     * variables are replaced rather than mutated in place.
+     */
+    public void setMemoizeTemplates(boolean memoize) {
+        this.memoizeTemplates = memoize;
+        log.info("Template memoization {}", memoize ? "enabled" : "disabled");
+    }
+
+    public boolean isMemoizeTemplates() {
+        return memoizeTemplates;
+    }
+
+    /** Memoized results are tied to the mode they were rendered in, so switching never serves stale ones. */
+    public void setNumericMode(NumericMode mode) {
+        this.numericMode = Objects.requireNonNull(mode);
+        log.info("Numeric mode set to {}", mode);
+    }
+
+    public NumericMode getNumericMode() {
+        return numericMode;
+    }
+
+    /** Installs instrumentation hooks; {@link VariableStoreMetrics#NOOP} turns them off. */
+    public void setMetrics(VariableStoreMetrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    public VariableStoreMetrics getMetrics() {
+        return metrics;
+    }
+
     /* ========================= VARIABLES ========================= */
 
     public void addVariable(String name, Object value) {
         if (value == null) return;
         String base = normalizeBase(name);
-        permanent.put(base, value);
+        permanent.put(slotOf(base), value);
+        if (constants.containsKey(base)) {
+            synchronized (constants) {
+                if (constants.replace(base, value) != null) constantsVersion.incrementAndGet();
+            }
+        }
         log.debug("Added permanent variable {}", base);
     }
 
-    public Scope withTempVariable(String name, Object value) {
+    /**
+     * Adds a permanent variable that templates may treat as a constant: paths
+     * rooted at it are folded into a per-store specialised template. Changing
+     * or removing it later invalidates those specialisations. Constants can't
+     * be shadowed by {@link #withTempVariable}.
+     */
+    public void addConstant(String name, Object value) {
+        if (value == null) return;
         String base = normalizeBase(name);
-        Map<String, Object> layer = new HashMap<>();
-        layer.put(base, value);
+        permanent.put(slotOf(base), value);
+        synchronized (constants) {
+            constants.put(base, value);
+            constantsVersion.incrementAndGet();
+        }
+        log.debug("Added constant variable {}", base);
+    }
+
+    /**
+     * Adds a permanent variable whose value is computed by {@code supplier}
+     * the first time a template reads it. The supplier runs at most once,
+     * even with concurrent readers, and a null result reads as missing.
+     * Variables nobody reads never run it.
+     */
+    public void addLazyVariable(String name, Supplier<?> supplier) {
+        String base = normalizeBase(name);
+        permanent.put(slotOf(base), new LazyValue(supplier));
+        // Not foldable: the value doesn't exist until the first render reads it
+        removeConstant(base);
+        log.debug("Added lazy variable {}", base);
+    }
+
+    // Add variable using scope + key -> stored as "${scope.key}"
+    public void addVariable(String scope, String key, Object value) {
+        if (value == null) return;
+        String baseVar = "${" + Objects.requireNonNull(scope).trim() + "." + Objects.requireNonNull(key).trim() + "}";
+        addVariable(baseVar, value);
+    }
+
+    // Add a batch of variables. Keys can be "Scope.Key" or "${Scope.Key}"
+    public void addVariables(Map<String, Object> variables) {
+        if (variables == null || variables.isEmpty()) return;
+        for (Map.Entry<String, Object> e : variables.entrySet()) {
+            addVariable(e.getKey(), e.getValue());
+        }
+    }
 
-        overlays.get().push(layer);
-        log.debug("Pushed temp variable {}", base);
+    // Remove by either "Scope.Key" or "${Scope.Key}"
+    public void removeVariable(String name) {
+        if (name == null || name.trim().isEmpty()) return;
+        String base = normalizeBase(name);
+        int slot = VariableSlots.existingSlot(base);
+        if (slot < 0) slot = localSlots.existingSlot(base);
+        if (slot >= 0) permanent.remove(slot);
+        removeConstant(base);
+    }
+
+    // Clear everything permanent + own cache (temporary overlays live in contexts);
+    // the shared cache holds no store state and is left to the other stores
+    public void clear() {
+        permanent.clear();
+        synchronized (constants) {
+            constants.clear();
+            constantsVersion.incrementAndGet();
+        }
+        if (!templateCache.isShared()) templateCache.clear();
+        log.info("VariableStore cleared (permanent vars + template cache)");
+    }
+
+    /**
+     * Independent copy of this store's permanent variables and config that
+     * shares its compiled templates. O(1) with {@link Storage#PERSISTENT},
+     * O(slots) otherwise. Temp variables stay with their contexts.
+     */
+    public VariableStore fork() {
+        return new VariableStore(this, permanent.fork());
+    }
+
+    /**
+     * Read-only copy of the permanent variables as of now; adding, removing
+     * or clearing variables on it throws UnsupportedOperationException.
+     * O(1) with {@link Storage#PERSISTENT}.
+     */
+    public VariableStore snapshot() {
+        return new VariableStore(this, permanent.snapshot());
+    }
+
+    /**
+     * Binds {@code name} on this thread until the returned scope closes.
+     * Close each scope exactly once, innermost first, as try-with-resources
+     * does: scopes are recycled for later pushes.
+     */
+    public Scope withTempVariable(String name, Object value) {
+        return overlays().push(slotOfName(name), value);
+    }
+
+    /** Binds every entry of {@code variables} as one overlay, popped together. */
+    public Scope withTempVariables(Map<String, ?> variables) {
+        return overlays().push(Objects.requireNonNull(variables));
+    }
+
+    /**
+     * Snapshot of this thread's temp variables. Pass it to tasks running on
+     * other threads, via {@link EvaluationContext#wrap} or
+     * {@link EvaluationContext#resolveVariables}, so they see the same overlays.
+     */
+    public EvaluationContext currentContext() {
+        EvaluationContext ctx = context();
+        ctx.escaped = true;
+        return ctx;
+    }
 
-        return () -> {
-            overlays.get().pop();
-            if (overlays.get().isEmpty()) overlays.remove();
-            log.debug("Popped temp variable {}", base);
-        };
+    // This thread's context for a render that finishes before any scope closes
+    private EvaluationContext context() {
+        OverlayStack s = overlays.get();
+        return s == null ? root : s.current;
+    }
+
+    private OverlayStack overlays() {
+        OverlayStack s = overlays.get();
+        return s != null ? s : OverlayStack.open(overlays, root);
     }
 
     /* ========================= RESOLUTION ========================= */
 
     public String resolveVariables(String template) {
-        if (template == null || template.isEmpty()) return template;
+        return resolveVariables(template, context());
+    }
 
-        CompiledTemplate ct = templateCache.computeIfAbsent(template, t -> {
-            log.debug("Template cache MISS, compiling [{}]", t);
-            return TemplateCompiler.compile(t);
-        });
+    /** Streams the resolved template into {@code out} without building it as a String first. */
+    public void renderTo(String template, Appendable out) throws IOException {
+        if (template == null || template.isEmpty()) return;
+        if (template.indexOf("${") < 0) {
+            templateCache.recordBypass();
+            out.append(template);
+            return;
+        }
+        compiled(template).renderTo(context().pinned(), out);
+    }
 
-        return ct.evaluate(this);
+    public void renderTo(String template, Writer out) throws IOException {
+        renderTo(template, (Appendable) out);
     }
 
-    /* ========================= INTERNAL ========================= */
+    /**
+     * Writes the resolved template to {@code out} as UTF-8.
+     *
+     * @throws java.nio.BufferOverflowException if {@code out} runs out of room
+     */
+    public void renderTo(String template, ByteBuffer out) {
+        if (template == null || template.isEmpty()) return;
+        if (template.indexOf("${") < 0) {
+            templateCache.recordBypass();
+            ValueWriter.putUtf8(out, template);
+            return;
+        }
+        compiled(template).renderTo(context().pinned(), out);
+    }
 
-    Object resolveExpression(Expression expr) {
-        int depth = exprDepth.get();
-        if (depth >= MAX_EXPR_DEPTH) {
-            throw new IllegalStateException(
-                    "Expression depth exceeded " + MAX_EXPR_DEPTH + " (possible recursion)"
-            );
+    /**
+     * Resolves {@code template} as SQL for a prepared statement: placeholders
+     * become {@code ?} markers with their values in the returned bind list,
+     * collections right after {@code IN (} expand to one marker per element,
+     * only {@code FXN.IDENT(...)} and quoted identifiers are inlined, after
+     * escaping, and placeholders in comments are dropped.
+     *
+     * @throws IllegalArgumentException if an {@code IDENT} value isn't a plain identifier
+     */
+    public SqlStatement resolveSql(String template) {
+        if (template == null || template.isEmpty()) return new SqlStatement("", List.of());
+        if (template.indexOf("${") < 0) {
+            templateCache.recordBypass();
+            return new SqlStatement(template, List.of());
         }
+        return compiled(template).renderSql(template, context().pinned());
+    }
+
+    /* ========================= BATCH ========================= */
+
+    /**
+     * Renders {@code template} once per row with the row bound to
+     * {@code rowVariable} (e.g. {@code "Loop.Row"}). The template is compiled
+     * once and the row binding reuses a single frame for the whole batch.
+     */
+    public String[] evaluateForRows(String template, String rowVariable,
+                                    List<? extends Map<String, ?>> rows) {
+        String[] out = new String[rows.size()];
+        evaluateForRows(template, rowVariable, rows, out, 0);
+        return out;
+    }
+
+    /** As {@link #evaluateForRows(String, String, List)}, writing into {@code out} from {@code offset}. */
+    public void evaluateForRows(String template, String rowVariable,
+                                List<? extends Map<String, ?>> rows, String[] out, int offset) {
+        Objects.checkFromIndexSize(offset, rows.size(), out.length);
+        if (template == null || template.indexOf("${") < 0) {
+            Arrays.fill(out, offset, offset + rows.size(), template);
+            return;
+        }
+
+        CompiledTemplate ct = compiled(template);
+        EvaluationContext ctx = rowContext(rowVariable);
+        for (int i = 0; i < rows.size(); i++) {
+            ctx.rebind(rows.get(i));
+            out[offset + i] = ct.evaluate(ctx);
+        }
+    }
+
+    /** As {@link #evaluateForRows(String, String, List)}, appending results to {@code column}. */
+    public void evaluateForRows(String template, String rowVariable,
+                                List<? extends Map<String, ?>> rows, Collection<? super String> column) {
+        if (template == null || template.indexOf("${") < 0) {
+            for (int i = 0; i < rows.size(); i++) column.add(template);
+            return;
+        }
+
+        CompiledTemplate ct = compiled(template);
+        EvaluationContext ctx = rowContext(rowVariable);
+        for (Map<String, ?> row : rows) {
+            ctx.rebind(row);
+            column.add(ct.evaluate(ctx));
+        }
+    }
+
+    // One snapshot for the whole batch, so every row sees the same variables
+    private EvaluationContext rowContext(String rowVariable) {
+        int slot = slotOfName(rowVariable);
+        return context().pinned().withReusableFrame(slot);
+    }
+
+    /* ========================= PRECOMPILATION ========================= */
+
+    /**
+     * Compiles {@code templates} into the cache up front, e.g. every template
+     * of a workflow definition when it loads, in parallel on the common
+     * fork-join pool. Returns how many compiled; invalid templates are logged
+     * and skipped so they fail again, with the same error, when rendered.
+     */
+    public int precompile(Collection<String> templates) {
+        return precompile(templates, ForkJoinPool.commonPool());
+    }
+
+    public int precompile(Collection<String> templates, ForkJoinPool pool) {
+        AtomicInteger count = new AtomicInteger();
+        Set<String> distinct = new HashSet<>(templates);
+        // Run the parallel stream inside pool so its tasks use pool's workers
+        pool.submit(() -> distinct.parallelStream()
+                .filter(t -> t != null && t.indexOf("${") >= 0)
+                .forEach(t -> {
+                    try {
+                        compiled(t);
+                        count.incrementAndGet();
+                    } catch (IllegalArgumentException e) {
+                        log.warn("Precompile failed for [{}]: {}", t, e.getMessage());
+                    }
+                })).join();
+        log.info("Precompiled {} of {} templates", count.get(), distinct.size());
+        return count.get();
+    }
+
+    /**
+     * Writes the currently cached templates to {@code file} in a compact
+     * binary form, for {@link #loadCompiledTemplates} after a restart.
+     * Returns the number written.
+     */
+    public int saveCompiledTemplates(Path file) throws IOException {
+        Map<String, CompiledTemplate> snapshot = new HashMap<>();
+        templateCache.forEach(snapshot::put);
+        int written = TemplateCodec.write(file, snapshot);
+        log.info("Saved {} compiled templates to {}", written, file);
+        return written;
+    }
+
+    /**
+     * Memory-maps a file written by {@link #saveCompiledTemplates} and adds
+     * its templates to the cache without parsing them. Templates whose
+     * functions are no longer registered are skipped and compile on first
+     * use. Returns the number loaded.
+     */
+    public int loadCompiledTemplates(Path file) throws IOException {
+        int loaded = TemplateCodec.read(file, (t, ct) -> templateCache.put(t, ct, 0, cacheClient));
+        log.info("Loaded {} compiled templates from {}", loaded, file);
+        return loaded;
+    }
 
-        exprDepth.set(depth + 1);
-        try {
-            return expr.eval(this);
-        } finally {
-            exprDepth.set(depth);
+    /* ========================= ANALYSIS ========================= */
+
+    /** Variables and paths {@code template} reads; compiles it through the cache if needed. */
+    public VariableUsage referencedVariables(String template) {
+        return analyze(Collections.singletonList(template));
+    }
+
+    /**
+     * Variables read by any of {@code templates}, e.g. all templates of a
+     * workflow. Use {@link VariableUsage#unread} to find published outputs
+     * nothing reads.
+     */
+    public VariableUsage analyze(Collection<String> templates) {
+        List<CompiledTemplate> compiled = new ArrayList<>(templates.size());
+        for (String t : templates) {
+            if (t != null && t.indexOf("${") >= 0) compiled.add(compiled(t));
         }
+        return VariableUsage.of(compiled);
+    }
+
+    /**
+     * Estimated heap held per cached template, walked now; costs a pass over
+     * every cached template, so meant for diagnostics rather than polling.
+     * A shared cache reports for all of its stores.
+     */
+    public TemplateHeapReport templateHeapReport() {
+        return TemplateHeapReport.of(templateCache, cacheClient);
     }
 
-    Object resolveBase(String baseVar) {
-        Object v = fromOverlay(baseVar);
-        if (v != null) {
-            log.debug("Resolved {} from TEMP overlay", baseVar);
-            return v;
+    /** Stats of the cache this store uses; a shared cache reports for all of its stores. */
+    public TemplateCacheStats templateCacheStats() {
+        return templateCache.stats();
+    }
+
+    /* ========================= INTERNAL ========================= */
+
+    CompiledTemplate.StoreState templateState(CompiledTemplate ct) {
+        return cacheClient.state(ct);
+    }
+
+    private CompiledTemplate compiled(String template) {
+        VariableStoreMetrics m = metrics;
+        CompiledTemplate ct = templateCache.getIfPresent(template, cacheClient);
+        if (ct != null) {
+            m.cacheHit(template);
+            return ct;
         }
 
-        v = permanent.get(baseVar);
-        if (v != null) {
-            log.debug("Resolved {} from PERMANENT store", baseVar);
-        } else {
-            log.debug("Variable {} not found", baseVar);
+        m.cacheMiss(template);
+        log.debug("Template cache MISS, compiling [{}]", template);
+        long start = System.nanoTime();
+        ct = TemplateCompiler.compile(template);
+        long nanos = System.nanoTime() - start;
+
+        m.templateCompiled(template, nanos);
+        templateCache.put(template, ct, nanos, cacheClient);
+        return ct;
+    }
+
+    String resolveVariables(String template, EvaluationContext ctx) {
+        if (template == null || template.isEmpty()) return template;
+
+        // Nothing to substitute: don't compile or cache plain strings
+        if (template.indexOf("${") < 0) {
+            templateCache.recordBypass();
+            return template;
         }
-        return v;
+        ctx = ctx.pinned();
+        VariableStoreMetrics m = metrics;
+        if (m == VariableStoreMetrics.NOOP) return compiled(template).evaluate(ctx);
+
+        long start = System.nanoTime();
+        String result = compiled(template).evaluate(ctx);
+        m.templateEvaluated(template, System.nanoTime() - start);
+        return result;
+    }
+
+    /** Makes {@code ctx} current on this thread until the returned scope closes. */
+    Scope install(EvaluationContext ctx) {
+        return overlays().install(ctx);
+    }
+
+    /** Called by {@link EvaluationContext} when neither a temp binding nor the table has {@code slot}. */
+    void missingVariable(int slot) {
+        VariableStoreMetrics m = metrics;
+        if (m == VariableStoreMetrics.NOOP) return;
+        m.missingVariable(slot < VariableSlots.MAX_SLOTS ? VariableSlots.nameOf(slot) : localSlots.nameOf(slot));
+    }
+
+    /** Slot of a normalized base: process-wide while {@link VariableSlots} has room, else this store's. */
+    int slotOf(String base) {
+        int slot = VariableSlots.slotOf(base);
+        return slot >= 0 ? slot : localSlots.slotOf(base);
+    }
+
+    /** Slot of an unnormalized name such as {@code "Loop.Row"}. */
+    int slotOfName(String name) {
+        int slot = VariableSlots.slotOfName(Objects.requireNonNull(name));
+        return slot >= 0 ? slot : localSlots.slotOf(normalizeBase(name));
     }
 
     MissingVariablePolicy policy() {
         return missingVariablePolicy;
     }
 
-    private Object fromOverlay(String base) {
-        Deque<Map<String, Object>> stack = overlays.get();
-        if (stack == null) return null;
+    boolean memoizeTemplates() {
+        return memoizeTemplates;
+    }
+
+    NumericMode numericMode() {
+        return numericMode;
+    }
+
+    boolean hasConstants() {
+        return !constants.isEmpty();
+    }
+
+    Map<String, Object> constants() {
+        return constants;
+    }
+
+    int constantsVersion() {
+        return constantsVersion.get();
+    }
 
-        for (Map<String, Object> layer : stack) {
-            if (layer.containsKey(base)) return layer.get(base);
+    private void removeConstant(String base) {
+        if (!constants.containsKey(base)) return;
+        synchronized (constants) {
+            if (constants.remove(base) != null) constantsVersion.incrementAndGet();
         }
-        return null;
     }
 
-    private static String normalizeBase(String name) {
+    static String normalizeBase(String name) {
         String s = name.trim();
         if (!s.startsWith("${")) s = "${" + s + "}";
         int idx = s.indexOf('.', 2);
@@ -0,0 +1,28 @@
+package variable;
+
+/**
+ * Instrumentation hooks for a {@link VariableStore}.
+ *
+ * Every method defaults to a no-op, so implementations override only what
+ * they record. The store skips timing entirely while {@link #NOOP} is
+ * installed. Callbacks run on the rendering thread and must be cheap.
+ *
+ * @see RecordingVariableStoreMetrics
+ * @see JfrVariableStoreMetrics
+ */
+public interface VariableStoreMetrics {
+
+    VariableStoreMetrics NOOP = new VariableStoreMetrics() { };
+
+    /** One full render of {@code template}, including compilation on a cache miss. */
+    default void templateEvaluated(String template, long nanos) { }
+
+    default void templateCompiled(String template, long nanos) { }
+
+    default void cacheHit(String template) { }
+
+    default void cacheMiss(String template) { }
+
+    /** A base variable ({@code "${Scope.Key}"}) that was neither a temp nor a permanent variable. */
+    default void missingVariable(String name) { }
+}
@@ -0,0 +1,33 @@
+package variable;
+
+/**
+ * Slot-indexed storage behind a {@link VariableStore}'s permanent variables.
+ *
+ * Versions only ever grow for a given table lineage, so a reader that saw
+ * version {@code v} of a slot can detect any later write, including a
+ * remove or clear.
+ */
+interface VariableTable {
+
+    Object get(int slot);
+
+    long version(int slot);
+
+    void put(int slot, Object value);
+
+    Object remove(int slot);
+
+    void clear();
+
+    /** Independent copy; writes to either side are not seen by the other. */
+    VariableTable fork();
+
+    /** Read-only point-in-time copy; writes to it throw UnsupportedOperationException. */
+    VariableTable snapshot();
+
+    /**
+     * Consistent view to read a whole render from. Tables that can't take a
+     * cheap snapshot return themselves.
+     */
+    VariableTable readView();
+}
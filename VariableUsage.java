@@ -0,0 +1,71 @@
+package variable;
+
+import java.util.*;
+
+/**
+ * Variables read by a set of templates, as found by walking their compiled
+ * expressions.
+ *
+ * Variables are reported in the store's {@code ${Scope.Key}} form, paths
+ * as written in templates but with list indexes as dotted segments, e.g.
+ * {@code ${Task1.ResultSet.Cursor1.0.id}}. Both branches of a condition
+ * count as read. Temp variables such as loop rows are included.
+ */
+public final class VariableUsage {
+
+    private final Set<String> variables;
+    private final Set<String> paths;
+
+    VariableUsage(Set<String> variables, Set<String> paths) {
+        this.variables = Collections.unmodifiableSet(variables);
+        this.paths = Collections.unmodifiableSet(paths);
+    }
+
+    static VariableUsage of(Collection<CompiledTemplate> templates) {
+        Set<String> variables = new TreeSet<>();
+        Set<String> paths = new TreeSet<>();
+        for (CompiledTemplate ct : templates) {
+            ct.visit(e -> {
+                if (e instanceof PathExpression
+                        && ((PathExpression) e).slot() != CollectionFunction.ROW_SLOT) {
+                    PathExpression p = (PathExpression) e;
+                    variables.add(p.base());
+                    paths.add(p.pathName());
+                }
+            });
+        }
+        return new VariableUsage(variables, paths);
+    }
+
+    /** Base variables read, e.g. {@code ${SYSTEM.User}}. */
+    public Set<String> variables() {
+        return variables;
+    }
+
+    /** Full paths read, e.g. {@code ${SYSTEM.User.address.city}}. */
+    public Set<String> paths() {
+        return paths;
+    }
+
+    /** Whether {@code name} ("Scope.Key" or "${Scope.Key}") is read at all. */
+    public boolean reads(String name) {
+        return variables.contains(VariableStore.normalizeBase(name));
+    }
+
+    /**
+     * The subset of {@code published} that no template reads, in the given
+     * order, so a task can skip building those outputs.
+     */
+    public List<String> unread(Collection<String> published) {
+        List<String> out = new ArrayList<>();
+        for (String name : published) {
+            if (!reads(name)) out.add(name);
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        return "VariableUsage{variables=" + variables + ", paths=" + paths.size() + "}";
+    }
+}
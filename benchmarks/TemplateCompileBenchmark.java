@@ -0,0 +1,54 @@
+package variable;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache-miss cost: parsing and folding a template, without the cache.
+ *
+ * Sized after our generated SQL: a few kilobytes of text with placeholders
+ * nested {@code depth} calls deep. Compare against a run of the same
+ * benchmark on an earlier commit to see the parser's effect:
+ *
+ *   java -jar benchmarks.jar TemplateCompileBenchmark -prof gc -rf json -rff baseline/template-compile.json
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class TemplateCompileBenchmark {
+
+    @Param({"1", "8", "32"})
+    int depth;
+
+    @Param({"40"})
+    int columns;
+
+    String sql;
+
+    @Setup
+    public void setup() {
+        StringBuilder call = new StringBuilder("${SYSTEM.Value}");
+        for (int i = 0; i < depth; i++) {
+            call.insert(0, "${FXN.REPLACE(").append(", 'a, b', \"c)d\")}");
+        }
+
+        StringBuilder sb = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns; i++) {
+            if (i > 0) sb.append(",\n       ");
+            sb.append("COALESCE(t.col_").append(i).append(", ")
+              .append(call).append(") AS ${Loop.Row.alias_").append(i).append('}');
+        }
+        sb.append("\n  FROM ${SYSTEM.Schema}.${FXN.UPPER(${SYSTEM.Table})} t")
+          .append("\n WHERE t.tenant = '${SYSTEM.Tenant}' AND t.day = ${FXN.IF(${SYSTEM.Flag}, 1, 0)}");
+        sql = sb.toString();
+    }
+
+    @Benchmark
+    public CompiledTemplate compileSql() {
+        return TemplateCompiler.compile(sql);
+    }
+}
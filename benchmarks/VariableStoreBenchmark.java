@@ -0,0 +1,227 @@
+package variable;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH scenarios for the variable engine, mirroring VariableStoreTestDriver
+ * at scale.
+ *
+ * Run with the GC profiler so allocation per op is reported, and keep the
+ * JSON next to earlier runs to compare against:
+ *
+ *   java -jar benchmarks.jar VariableStoreBenchmark -prof gc -rf json -rff baseline/variable-store.json
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class VariableStoreBenchmark {
+
+    static final String SIMPLE = "${SYSTEM.Var1}";
+    static final String NESTED = "${FXN.UPPER(${FXN.TRIM(${SYSTEM.Var1})})}";
+    static final String DEEP_POJO = "${SYSTEM.Order.customer.address.city}";
+    static final String DEEP_MAP = "${SYSTEM.Data.level1.level2.level3}";
+    static final String LIST_INDEX = "${SYSTEM.ARR[2]}";
+    static final String SHORT_CIRCUIT =
+            "${FXN.IF(${SYSTEM.Flag},'Y',${FXN.JOIN(${SYSTEM.Big},',')})}"
+            + "${FXN.SWITCH(${SYSTEM.Code},'A','alpha','B','beta','other')}"
+            + "${FXN.IN(${SYSTEM.Code},'X','Y','B')}";
+    static final String NUMERIC =
+            "${FXN.ROUND(${FXN.MUL(${FXN.ADD(${SYSTEM.Price},${SYSTEM.Tax})},${SYSTEM.Qty})},2)}"
+            + "${FXN.IF(${FXN.ISGREATERTHAN(${SYSTEM.Qty},10)},'bulk','')}";
+    static final String ROW = "file_${Loop.Row.id}_${FXN.UPPER(${Loop.Row.status})}.csv";
+    static final String REPEATED =
+            "select * from t where city = '${SYSTEM.Order.customer.address.city}'"
+            + " or alt = '${SYSTEM.Order.customer.address.city}' or code = '${FXN.UPPER(${FXN.TRIM(${SYSTEM.Var1})})}'"
+            + " or name = '${FXN.UPPER(${FXN.TRIM(${SYSTEM.Var1})})}' -- ${SYSTEM.Order.customer.address.city}";
+
+    @Param({"100"})
+    int rows;
+
+    @Param({"SLOT_ARRAY", "PERSISTENT"})
+    VariableStore.Storage storage;
+
+    @Param({"SHARED", "PER_STORE"})
+    VariableStore.TemplateCaching caching;
+
+    VariableStore store;
+    List<Map<String, Object>> rowData;
+    int coldCounter;
+
+    VariableStore[] runs;
+    int nextRun;
+
+    @Setup
+    public void setup() {
+        store = new VariableStore(VariableStore.MissingVariablePolicy.REPLACE_WITH_EMPTY, storage, caching);
+        store.addVariable("SYSTEM", "Var1", "  hello world  ");
+        store.addVariable("SYSTEM", "ARR", List.of("A", "B", "C", "D"));
+        store.addVariable("SYSTEM", "Flag", true);
+        store.addVariable("SYSTEM", "Code", "B");
+        store.addVariable("SYSTEM", "Price", 19.99);
+        store.addVariable("SYSTEM", "Tax", 1.4);
+        store.addVariable("SYSTEM", "Qty", 12);
+        store.addVariable("SYSTEM", "Order", new Order(new Customer(new Address("Pune"))));
+
+        List<String> big = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) big.add("item" + i);
+        store.addVariable("SYSTEM", "Big", big);
+
+        Map<String, Object> level3 = Map.of("level3", "deep");
+        store.addVariable("SYSTEM", "Data", Map.of("level1", Map.of("level2", level3)));
+
+        rowData = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", i);
+            row.put("status", i % 2 == 0 ? "active" : "closed");
+            rowData.add(row);
+        }
+
+        runs = new VariableStore[4];
+        for (int i = 0; i < runs.length; i++) {
+            runs[i] = new VariableStore(VariableStore.MissingVariablePolicy.REPLACE_WITH_EMPTY, storage, caching);
+            runs[i].addConstant("SYSTEM.Code", "R" + i);
+            runs[i].addVariable("SYSTEM", "Var1", "  run " + i + "  ");
+            runs[i].setMemoizeTemplates(true);
+        }
+
+        // warm the cache for the warm-path benchmarks
+        for (String t : List.of(SIMPLE, NESTED, DEEP_POJO, DEEP_MAP, LIST_INDEX, SHORT_CIRCUIT, NUMERIC, REPEATED)) {
+            store.resolveVariables(t);
+        }
+    }
+
+    @Benchmark
+    public String simplePath() {
+        return store.resolveVariables(SIMPLE);
+    }
+
+    @Benchmark
+    public String nestedFunctions() {
+        return store.resolveVariables(NESTED);
+    }
+
+    @Benchmark
+    public String deepPojoPath() {
+        return store.resolveVariables(DEEP_POJO);
+    }
+
+    @Benchmark
+    public String deepMapPath() {
+        return store.resolveVariables(DEEP_MAP);
+    }
+
+    @Benchmark
+    public String listIndex() {
+        return store.resolveVariables(LIST_INDEX);
+    }
+
+    @Benchmark
+    public String shortCircuit() {
+        return store.resolveVariables(SHORT_CIRCUIT);
+    }
+
+    @Benchmark
+    public String numeric() {
+        return store.resolveVariables(NUMERIC);
+    }
+
+    /** Same path and call several times in one template; each is evaluated once per render. */
+    @Benchmark
+    public String repeatedSubexpressions() {
+        return store.resolveVariables(REPEATED);
+    }
+
+    /** One withTempVariable push/pop per row, the pattern the batch API replaces. */
+    @Benchmark
+    public void tempOverlayLoop(Blackhole bh) {
+        for (Map<String, Object> row : rowData) {
+            try (VariableStore.Scope ignored = store.withTempVariable("Loop.Row", row)) {
+                bh.consume(store.resolveVariables(ROW));
+            }
+        }
+    }
+
+    @Benchmark
+    public String[] batchRows() {
+        return store.evaluateForRows(ROW, "Loop.Row", rowData);
+    }
+
+    /** Parse + fold only, no cache involved. */
+    @Benchmark
+    public CompiledTemplate coldCompile() {
+        return TemplateCompiler.compile(SHORT_CIRCUIT);
+    }
+
+    /** Distinct strings every op: cache miss, compile and admission. */
+    @Benchmark
+    public String coldCacheMiss() {
+        return store.resolveVariables("x" + (coldCounter++) + NESTED);
+    }
+
+    /** Branch a workflow step: fork, overwrite one variable, render. */
+    @Benchmark
+    public String forkAndWrite() {
+        VariableStore branch = store.fork();
+        branch.addVariable("SYSTEM", "Code", "A");
+        return branch.resolveVariables(SHORT_CIRCUIT);
+    }
+
+    /** A store per workflow run: with PER_STORE caching every run parses its templates again. */
+    @Benchmark
+    public String storePerRun() {
+        VariableStore run = new VariableStore(
+                VariableStore.MissingVariablePolicy.REPLACE_WITH_EMPTY, storage, caching);
+        run.addVariable("SYSTEM", "Var1", "  hello world  ");
+        run.addVariable("SYSTEM", "Code", "B");
+        run.resolveVariables(NESTED);
+        return run.resolveVariables(SHORT_CIRCUIT);
+    }
+
+    /** Runs taking turns on one template, each with its own constants and memo. */
+    @Benchmark
+    public String interleavedStores() {
+        return runs[nextRun++ & 3].resolveVariables(SHORT_CIRCUIT);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String contendedNested() {
+        return store.resolveVariables(NESTED);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void contendedOverlay(Blackhole bh) {
+        try (VariableStore.Scope ignored = store.withTempVariable("Loop.Row", rowData.get(0))) {
+            bh.consume(store.resolveVariables(ROW));
+        }
+    }
+
+    /* ========================= FIXTURES ========================= */
+
+    public static final class Order {
+        private final Customer customer;
+        public Order(Customer customer) { this.customer = customer; }
+        public Customer getCustomer() { return customer; }
+    }
+
+    public static final class Customer {
+        private final Address address;
+        public Customer(Address address) { this.address = address; }
+        public Address getAddress() { return address; }
+    }
+
+    public static final class Address {
+        private final String city;
+        public Address(String city) { this.city = city; }
+        public String getCity() { return city; }
+    }
+}
@@ -1,215 +1,312 @@
 package variable;
 
-import java.util.*;
-
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single-pass recursive-descent parser for the expressions inside
+ * {@code ${ ... }}.
+ *
+ * Works on index ranges into the template's own characters: nothing is
+ * substringed or re-scanned, only literal values, function names and path
+ * tokens are copied out. Errors carry the absolute position in the input.
+ *
+ * <pre>
+ *   expr := '${' expr '}' | string | 'FXN.' name '(' [expr (',' expr)*] ')' | word
+ *   word := null | true | false | number | path      (empty word = "")
+ *   path := segment (('.' | '?.') segment | '[' index ']')*
+ * </pre>
+ *
+ * In the per-element arguments of a {@link CollectionFunction}, a path
+ * starting with {@code row} reads the current element instead.
+ */
 final class ExpressionParser {
 
+    static final int MAX_EXPR_DEPTH = 50;
+
+    private static final int EXCERPT = 24;
+
+    private final char[] src;
+    private int pos;
+
+    // Function calls enclosing the current position
+    private int depth;
+
+    // Inside a per-element argument of a CollectionFunction, where row.x means the element
+    private boolean rowScope;
+
+    ExpressionParser(char[] src) {
+        this.src = src;
+    }
+
+    /** Parses a standalone expression, with or without its {@code ${ }}. */
     static Expression parse(String raw) {
         if (raw == null) return new LiteralExpression(null);
 
-        String s = raw.trim();
+        ExpressionParser p = new ExpressionParser(raw.toCharArray());
+        Expression e = p.expression(true);
+        if (p.pos < p.src.length) throw p.error("Unexpected '" + p.src[p.pos] + "'", p.pos);
+        return e;
+    }
+
+    /**
+     * Parses the body of a placeholder whose {@code ${} ends just before
+     * {@code start}, up to and including its closing brace.
+     */
+    Expression parsePlaceholder(int start) {
+        pos = start;
+        Expression e = expression(true);
+        expectClosingBrace(start - 2);
+        return e;
+    }
+
+    /** Index just past the last placeholder parsed. */
+    int position() {
+        return pos;
+    }
 
-        // Allow callers to pass ${...} too
-        if (s.startsWith("${") && s.endsWith("}")) {
-            s = s.substring(2, s.length() - 1).trim();
+    /* ========================= EXPRESSIONS ========================= */
+
+    // Leaves pos on the first non-blank character after the expression
+    private Expression expression(boolean allowWrapper) {
+        skipWhitespace();
+        Expression e;
+        if (at("${")) {
+            if (!allowWrapper) throw error("Unexpected '${'", pos);
+            int open = pos;
+            pos += 2;
+            e = expression(false);
+            expectClosingBrace(open);
+        } else if (pos < src.length && (src[pos] == '"' || src[pos] == '\'')) {
+            e = string();
+        } else if (at("FXN.")) {
+            e = function();
+        } else {
+            return word();
         }
+        skipWhitespace();
+        return e;
+    }
 
-        // Literals
-        Expression lit = tryParseLiteral(s);
-        if (lit != null) return lit;
+    private Expression function() {
+        int start = pos;
+        pos += 4;
 
-        // Functions
-        if (s.startsWith("FXN.")) {
-            return parseFunction(s.substring(4));
+        int nameStart = pos;
+        while (pos < src.length && src[pos] != '(' && !isDelimiter(src[pos])) pos++;
+        String name = trimmed(nameStart, pos);
+        if (pos >= src.length || src[pos] != '(') {
+            throw error("Expected '(' after FXN." + name, pos);
         }
+        int open = pos++;
 
-        // Path
-        List<PathToken> tokens = tokenizePath(s);
-        if (tokens.size() < 2)
-            throw new IllegalArgumentException("Invalid expression: " + raw);
+        if (++depth >= MAX_EXPR_DEPTH) {
+            throw error("Expression depth exceeded " + MAX_EXPR_DEPTH, start);
+        }
 
-        String base = "${" + tokens.get(0).value + "." + tokens.get(1).value + "}";
-        List<PathToken> rest = tokens.subList(2, tokens.size());
+        boolean perElement = FunctionRegistry.find(name) instanceof CollectionFunction;
+        boolean outerRowScope = rowScope;
+
+        List<Expression> args = new ArrayList<>();
+        skipWhitespace();
+        if (pos < src.length && src[pos] == ')') {
+            pos++;
+        } else {
+            while (true) {
+                rowScope = outerRowScope || (perElement && !args.isEmpty());
+                args.add(expression(true));
+                if (pos >= src.length) throw error("Unclosed '(' of FXN." + name, open);
+
+                char c = src[pos++];
+                if (c == ')') break;
+                if (c != ',') throw error("Expected ',' or ')' but found '" + c + "'", pos - 1);
+            }
+        }
+        depth--;
+        rowScope = outerRowScope;
 
-        return new PathExpression(base, rest);
+        try {
+            return new FunctionExpression(FunctionRegistry.resolve(name, args.size()), args);
+        } catch (IllegalArgumentException e) {
+            throw error(e.getMessage(), start);
+        }
     }
 
-    private static Expression tryParseLiteral(String s) {
-        if (s.isEmpty()) return new LiteralExpression("");
-
-        // null literal
-        if ("null".equalsIgnoreCase(s)) return new LiteralExpression(null);
+    private Expression string() {
+        char quote = src[pos];
+        int open = pos++;
+        StringBuilder sb = null;
+        int run = pos;
+
+        while (pos < src.length) {
+            char c = src[pos];
+            if (c == quote) {
+                String value = sb == null
+                        ? new String(src, run, pos - run)
+                        : sb.append(src, run, pos - run).toString();
+                pos++;
+                return new LiteralExpression(value);
+            }
+            if (c == '\\' && pos + 1 < src.length) {
+                if (sb == null) sb = new StringBuilder(pos - run + 16);
+                sb.append(src, run, pos - run);
+                unescape(sb, src[pos + 1]);
+                pos += 2;
+                run = pos;
+                continue;
+            }
+            pos++;
+        }
+        throw error("Unclosed string literal", open);
+    }
 
-        // boolean literals
-        if ("true".equalsIgnoreCase(s)) return new LiteralExpression(Boolean.TRUE);
-        if ("false".equalsIgnoreCase(s)) return new LiteralExpression(Boolean.FALSE);
+    private static void unescape(StringBuilder sb, char c) {
+        switch (c) {
+            case 'n': sb.append('\n'); break;
+            case 't': sb.append('\t'); break;
+            case '"':
+            case '\'':
+            case '\\': sb.append(c); break;
+            default: sb.append('\\').append(c);
+        }
+    }
 
-        // quoted string "..." or '...'
-        if ((s.startsWith("\"") && s.endsWith("\"")) || (s.startsWith("'") && s.endsWith("'"))) {
-            String inner = s.substring(1, s.length() - 1);
-            inner = inner.replace("\\\"", "\"")
-                         .replace("\\'", "'")
-                         .replace("\\n", "\n")
-                         .replace("\\t", "\t")
-                         .replace("\\\\", "\\");
-            return new LiteralExpression(inner);
+    /** Literal keyword, number or path, running to the next delimiter. */
+    private Expression word() {
+        int start = pos;
+        while (pos < src.length && !isDelimiter(src[pos])) {
+            if (src[pos] == '[') {
+                int close = indexOf(']', pos + 1, src.length);
+                if (close < 0) throw error("Unclosed '['", pos);
+                pos = close;
+            }
+            pos++;
+        }
+        int end = pos;
+        while (end > start && Character.isWhitespace(src[end - 1])) end--;
+
+        if (end == start) return new LiteralExpression("");
+        if (matches(start, end, "null")) return new LiteralExpression(null);
+        if (matches(start, end, "true")) return new LiteralExpression(Boolean.TRUE);
+        if (matches(start, end, "false")) return new LiteralExpression(Boolean.FALSE);
+        if (isNumber(start, end)) {
+            // Keep as Double for numeric functions
+            return new LiteralExpression(Double.parseDouble(new String(src, start, end - start)));
         }
+        return path(start, end);
+    }
 
-        // number literal (int/decimal)
-        if (looksLikeNumber(s)) {
-            try {
-                // Keep as Double for numeric functions
-                return new LiteralExpression(Double.parseDouble(s));
-            } catch (NumberFormatException ignored) {
-                // fall through; treat as path
+    private Expression path(int start, int end) {
+        List<PathToken> tokens = new ArrayList<>(4);
+        int segment = start;
+        boolean nullSafe = false;
+        boolean afterBracket = false;
+
+        int i = start;
+        while (i < end) {
+            char c = src[i];
+            if (c == '.' || (c == '?' && i + 1 < end && src[i + 1] == '.')) {
+                if (!afterBracket) tokens.add(token(segment, i, nullSafe));
+                nullSafe = c == '?';
+                i += nullSafe ? 2 : 1;
+                segment = i;
+                afterBracket = false;
+            } else if (c == '[') {
+                if (!afterBracket) tokens.add(token(segment, i, nullSafe));
+                int close = indexOf(']', i + 1, end);
+                tokens.add(token(i + 1, close, false));
+                nullSafe = false;
+                i = close + 1;
+                segment = i;
+                afterBracket = true;
+            } else if (c == ']') {
+                throw error("Unexpected ']'", i);
+            } else if (afterBracket) {
+                throw error("Expected '.' or '[' after ']'", i);
+            } else {
+                i++;
             }
         }
+        if (!afterBracket) tokens.add(token(segment, end, nullSafe));
+
+        if (rowScope && "row".equals(tokens.get(0).value)) {
+            return new PathExpression(CollectionFunction.ROW, tokens.subList(1, tokens.size()));
+        }
+        if (tokens.size() < 2) {
+            throw error("Invalid expression '" + new String(src, start, end - start) + "'", start);
+        }
+        String base = "${" + tokens.get(0).value + "." + tokens.get(1).value + "}";
+        return new PathExpression(base, tokens.subList(2, tokens.size()));
+    }
 
-        return null;
+    /* ========================= LEXING ========================= */
+
+    private static boolean isDelimiter(char c) {
+        return c == '}' || c == ',' || c == ')' || c == '(' || c == '{';
     }
 
-    private static boolean looksLikeNumber(String s) {
+    private boolean isNumber(int start, int end) {
         // simple numeric check: -12, 12.34
-        int i = 0;
-        if (s.startsWith("-")) i++;
+        int i = src[start] == '-' ? start + 1 : start;
         boolean dot = false;
         boolean digit = false;
-        for (; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (Character.isDigit(c)) digit = true;
+        for (; i < end; i++) {
+            char c = src[i];
+            if (c >= '0' && c <= '9') digit = true;
             else if (c == '.' && !dot) dot = true;
             else return false;
         }
         return digit;
     }
 
-    private static Expression parseFunction(String f) {
-        int idx = f.indexOf('(');
-        if (idx < 0 || !f.endsWith(")"))
-            throw new IllegalArgumentException("Invalid function call: FXN." + f);
+    private PathToken token(int start, int end, boolean nullSafe) {
+        return new PathToken(AstInterner.canonical(new String(src, start, end - start)), nullSafe);
+    }
 
-        String name = f.substring(0, idx).trim();
-        String inside = f.substring(idx + 1, f.length() - 1);
+    private String trimmed(int start, int end) {
+        while (start < end && Character.isWhitespace(src[start])) start++;
+        while (end > start && Character.isWhitespace(src[end - 1])) end--;
+        return new String(src, start, end - start);
+    }
 
-        List<String> argsRaw = splitArgs(inside);
-        List<Expression> args = new ArrayList<>(argsRaw.size());
-        for (String a : argsRaw) {
-            String t = a.trim();
-            if (!t.isEmpty()) args.add(parse(t));
-            else args.add(new LiteralExpression("")); // allow empty arg
+    private boolean matches(int start, int end, String keyword) {
+        if (end - start != keyword.length()) return false;
+        for (int i = 0; i < keyword.length(); i++) {
+            if (Character.toLowerCase(src[start + i]) != keyword.charAt(i)) return false;
         }
-
-        return new FunctionExpression(name, args);
+        return true;
     }
 
-    /**
-     * Splits function args safely:
-     * - supports nested (...) and nested ${...}
-     * - supports quoted strings with commas inside
-     */
-    private static List<String> splitArgs(String s) {
-        List<String> out = new ArrayList<>();
-        if (s == null || s.isBlank()) return out;
-
-        StringBuilder buf = new StringBuilder();
-        int parenDepth = 0;
-        int varDepth = 0;
-        boolean inQuotes = false;
-        char quoteChar = 0;
-
+    private boolean at(String s) {
+        if (pos + s.length() > src.length) return false;
         for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-
-            // Handle quotes
-            if (inQuotes) {
-                buf.append(c);
-                if (c == quoteChar && (i == 0 || s.charAt(i - 1) != '\\')) {
-                    inQuotes = false;
-                    quoteChar = 0;
-                }
-                continue;
-            } else if (c == '"' || c == '\'') {
-                inQuotes = true;
-                quoteChar = c;
-                buf.append(c);
-                continue;
-            }
-
-            // Track nested ${ ... }
-            if (c == '$' && i + 1 < s.length() && s.charAt(i + 1) == '{') {
-                varDepth++;
-                buf.append(c);
-                continue;
-            }
-            if (c == '}' && varDepth > 0) {
-                varDepth--;
-                buf.append(c);
-                continue;
-            }
-
-            // Track parentheses nesting
-            if (c == '(') {
-                parenDepth++;
-                buf.append(c);
-                continue;
-            }
-            if (c == ')' && parenDepth > 0) {
-                parenDepth--;
-                buf.append(c);
-                continue;
-            }
-
-            // Split on commas only at top-level
-            if (c == ',' && parenDepth == 0 && varDepth == 0) {
-                out.add(buf.toString());
-                buf.setLength(0);
-                continue;
-            }
-
-            buf.append(c);
+            if (src[pos + i] != s.charAt(i)) return false;
         }
-
-        out.add(buf.toString());
-        return out;
+        return true;
     }
 
-    // Your existing tokenizer, unchanged (dot + bracket + null-safe)
-    private static List<PathToken> tokenizePath(String raw) {
-        List<PathToken> out = new ArrayList<>();
-        StringBuilder buf = new StringBuilder();
-        boolean inBracket = false;
-        boolean nullSafe = false;
-
-        for (int i = 0; i < raw.length(); i++) {
-            char c = raw.charAt(i);
-
-            if (!inBracket && c == '?' && i + 1 < raw.length() && raw.charAt(i + 1) == '.') {
-                nullSafe = true;
-                i++;
-                continue;
-            }
-
-            if (!inBracket && c == '.') {
-                out.add(new PathToken(buf.toString(), nullSafe));
-                buf.setLength(0);
-                nullSafe = false;
-            } else if (c == '[') {
-                out.add(new PathToken(buf.toString(), nullSafe));
-                buf.setLength(0);
-                nullSafe = false;
-                inBracket = true;
-            } else if (c == ']') {
-                out.add(new PathToken(buf.toString(), false));
-                buf.setLength(0);
-                inBracket = false;
-            } else {
-                buf.append(c);
-            }
+    private int indexOf(char c, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (src[i] == c) return i;
         }
+        return -1;
+    }
 
-        if (buf.length() > 0)
-            out.add(new PathToken(buf.toString(), nullSafe));
+    private void skipWhitespace() {
+        while (pos < src.length && Character.isWhitespace(src[pos])) pos++;
+    }
+
+    private void expectClosingBrace(int open) {
+        if (pos >= src.length) throw error("Unclosed '${'", open);
+        if (src[pos] != '}') throw error("Expected '}' but found '" + src[pos] + "'", pos);
+        pos++;
+    }
 
-        return out;
+    private IllegalArgumentException error(String message, int at) {
+        int from = Math.max(0, at - EXCERPT);
+        int to = Math.min(src.length, at + EXCERPT);
+        return new IllegalArgumentException(message + " at position " + at + " near \""
+                + (from > 0 ? "..." : "") + new String(src, from, to - from)
+                + (to < src.length ? "..." : "") + "\"");
     }
 }
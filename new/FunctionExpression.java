@@ -1,151 +1,179 @@
 package variable;
 
+import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 
 final class FunctionExpression implements Expression {
 
-    private final String name;
-    private final List<Expression> args;
-
-    FunctionExpression(String name, List<Expression> args) {
-        this.name = name.toUpperCase();
-        this.args = args;
+    private final TemplateFunction function;
+    private final Expression[] args;
+
+    // Typed views of function, null unless it has unboxed paths
+    private final NumericFunction numeric;
+    private final ComparisonFunction comparison;
+    private final boolean conditional;
+    private final boolean coalescing;
+    private final CollectionFunction collection;
+
+    private final int hash;
+
+    /** {@code function} is already bound and arity-checked by the parser. */
+    FunctionExpression(TemplateFunction function, List<Expression> args) {
+        this.function = function;
+        this.args = args.toArray(new Expression[0]);
+        this.numeric = function instanceof NumericFunction ? (NumericFunction) function : null;
+        this.comparison = function instanceof ComparisonFunction ? (ComparisonFunction) function : null;
+        this.conditional = function == Functions.IF && this.args.length == 3;
+        this.coalescing = function == Functions.NVL || function == Functions.COALESCE;
+        this.collection = function instanceof CollectionFunction ? (CollectionFunction) function : null;
+        this.hash = 31 * function.hashCode() + Arrays.hashCode(this.args);
     }
 
     @Override
-    public Object eval(VariableStore store) {
-
-        // ✅ IF(condition, trueExpr, falseExpr) short-circuit
-        if ("IF".equals(name)) {
-            if (args.size() != 3) {
-                throw new IllegalArgumentException("IF requires 3 args: IF(condition, trueValue, falseValue)");
-            }
-            Object cond = store.resolveExpression(args.get(0));
-            return Functions.truthy(cond)
-                    ? store.resolveExpression(args.get(1))
-                    : store.resolveExpression(args.get(2));
+    public Object eval(EvaluationContext ctx) {
+        if (numeric != null) {
+            if (exact(ctx)) return numeric.applyExact(decimal(0, ctx), decimal(1, ctx));
+            return numeric.applyAsDouble(operand(0, ctx), operand(1, ctx));
         }
-
-        // ✅ AND(cond1, cond2, ...) short-circuit
-        if ("AND".equals(name)) {
-            if (args.isEmpty()) return true; // AND() => true (neutral element)
+        if (comparison != null) return evalBoolean(ctx);
+        if (collection != null) return collection.apply(args, ctx);
+        if (coalescing) {
             for (Expression e : args) {
-                Object v = store.resolveExpression(e);
-                if (!Functions.truthy(v)) return false;
+                Object v = e.eval(ctx);
+                if (v != null) return v;
             }
-            return true;
+            return null;
         }
 
-        // ✅ IN(value, option1, option2, ...) short-circuit
-        if ("IN".equals(name)) {
-            if (args.size() < 2) {
-                throw new IllegalArgumentException("IN requires at least 2 args: IN(value, option1, ...)");
-            }
-            Object val = store.resolveExpression(args.get(0));
-            for (int i = 1; i < args.size(); i++) {
-                Object option = store.resolveExpression(args.get(i));
-                if (Functions.areEqual(val, option)) return true;
-            }
-            return false;
+        if (function.isLazy()) {
+            return function.apply(new LazyArgs(args, ctx));
         }
 
-        // ✅ NOT_IN(value, option1, option2, ...)
-        if ("NOT_IN".equals(name)) {
-            if (args.size() < 2) {
-                throw new IllegalArgumentException("NOT_IN requires at least 2 args: NOT_IN(value, option1, ...)");
-            }
-        
-            Object val = store.resolveExpression(args.get(0));
-        
-            for (int i = 1; i < args.size(); i++) {
-                Object option = store.resolveExpression(args.get(i));
-                if (Functions.areEqual(val, option)) {
-                    return false; // short-circuit
-                }
-            }
-            return true;
-        }
-        
-        // ✅ CONTAINS(text, substring)
-        if ("CONTAINS".equals(name)) {
-            if (args.size() != 2) {
-                throw new IllegalArgumentException("CONTAINS requires 2 args: CONTAINS(text, substring)");
-            }
-        
-            Object textObj = store.resolveExpression(args.get(0));
-            Object subObj  = store.resolveExpression(args.get(1));
-        
-            if (textObj == null || subObj == null) return false;
-        
-            String text = String.valueOf(textObj);
-            String sub  = String.valueOf(subObj);
-        
-            return text.contains(sub);
+        Object[] vals = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            vals[i] = args[i].eval(ctx);
         }
-        
-        // ✅ CONTAINS_IGNORE_CASE(text, substring)
-        if ("CONTAINS_IGNORE_CASE".equals(name)) {
-            if (args.size() != 2) {
-                throw new IllegalArgumentException("CONTAINS_IGNORE_CASE requires 2 args");
-            }
-        
-            Object textObj = store.resolveExpression(args.get(0));
-            Object subObj  = store.resolveExpression(args.get(1));
-        
-            if (textObj == null || subObj == null) return false;
-        
-            String text = String.valueOf(textObj).toLowerCase();
-            String sub  = String.valueOf(subObj).toLowerCase();
-        
-            return text.contains(sub);
+        return function.apply(new ValueArgs(vals));
+    }
+
+    @Override
+    public double evalDouble(EvaluationContext ctx) {
+        if (numeric != null && !exact(ctx)) return numeric.applyAsDouble(operand(0, ctx), operand(1, ctx));
+        if (conditional) return args[0].evalBoolean(ctx) ? args[1].evalDouble(ctx) : args[2].evalDouble(ctx);
+        return Functions.toNumber(eval(ctx));
+    }
+
+    @Override
+    public long evalLong(EvaluationContext ctx) {
+        if (numeric != null && !exact(ctx)) return (long) numeric.applyAsDouble(operand(0, ctx), operand(1, ctx));
+        if (conditional) return args[0].evalBoolean(ctx) ? args[1].evalLong(ctx) : args[2].evalLong(ctx);
+        return Functions.toLong(eval(ctx));
+    }
+
+    @Override
+    public boolean evalBoolean(EvaluationContext ctx) {
+        if (comparison != null) {
+            return exact(ctx)
+                    ? comparison.testExact(decimal(0, ctx), decimal(1, ctx))
+                    : comparison.test(args[0].evalDouble(ctx), args[1].evalDouble(ctx));
         }
+        if (conditional) return args[0].evalBoolean(ctx) ? args[1].evalBoolean(ctx) : args[2].evalBoolean(ctx);
+        return Functions.truthy(eval(ctx));
+    }
 
-        // ✅ OR(cond1, cond2, ...) short-circuit
-        if ("OR".equals(name)) {
-            if (args.isEmpty()) return false; // OR() => false (neutral element)
-            for (Expression e : args) {
-                Object v = store.resolveExpression(e);
-                if (Functions.truthy(v)) return true;
-            }
-            return false;
+    private double operand(int i, EvaluationContext ctx) {
+        return i < args.length ? args[i].evalDouble(ctx) : 0;
+    }
+
+    private BigDecimal decimal(int i, EvaluationContext ctx) {
+        return i < args.length ? Functions.toDecimal(args[i].eval(ctx)) : BigDecimal.ZERO;
+    }
+
+    private static boolean exact(EvaluationContext ctx) {
+        return ctx.store().numericMode() == VariableStore.NumericMode.EXACT_DECIMAL;
+    }
+
+    @Override
+    public void visit(Consumer<Expression> visitor) {
+        visitor.accept(this);
+        for (Expression e : args) e.visit(visitor);
+    }
+
+    TemplateFunction function() {
+        return function;
+    }
+
+    Expression[] args() {
+        return args;
+    }
+
+    /** Same bound function applied to structurally equal arguments. */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FunctionExpression)) return false;
+        FunctionExpression other = (FunctionExpression) o;
+        return hash == other.hash && function == other.function && Arrays.equals(args, other.args);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public int depth() {
+        int max = 0;
+        for (Expression e : args) max = Math.max(max, e.depth());
+        return max + 1;
+    }
+
+    @Override
+    public Expression fold(ConstantFolder folder) {
+        Expression[] folded = new Expression[args.length];
+        boolean changed = false;
+        for (int i = 0; i < args.length; i++) {
+            folded[i] = folder.fold(args[i]);
+            changed |= folded[i] != args[i];
         }
 
-        // ✅ NOT(cond) short-circuit
-        if ("NOT".equals(name)) {
-            if (args.size() != 1) {
-                throw new IllegalArgumentException("NOT requires 1 arg: NOT(condition)");
-            }
-            Object v = store.resolveExpression(args.get(0));
-            return !Functions.truthy(v);
+        if (conditional && folded[0] instanceof LiteralExpression) {
+            Object cond = ((LiteralExpression) folded[0]).value();
+            return Functions.truthy(cond) ? folded[1] : folded[2];
         }
 
-        // ✅ SWITCH(value, case1, result1, ..., default?) short-circuit
-        if ("SWITCH".equals(name)) {
-            if (args.size() < 3) {
-                throw new IllegalArgumentException("SWITCH requires: SWITCH(value, case1, result1, ..., default?)");
-            }
+        LiteralExpression constant = ConstantFolder.evaluate(function, folded);
+        if (constant != null) return constant;
+
+        return changed ? new FunctionExpression(function, List.of(folded)) : this;
+    }
 
-            Object switchVal = store.resolveExpression(args.get(0));
+    /* ========================= ARGUMENT VIEWS ========================= */
 
-            int remaining = args.size() - 1;
-            boolean hasDefault = (remaining % 2 == 1);
-            int pairsEnd = args.size() - (hasDefault ? 1 : 0);
+    static final class ValueArgs implements FunctionArgs {
+        private final Object[] values;
 
-            for (int i = 1; i < pairsEnd; i += 2) {
-                Object caseVal = store.resolveExpression(args.get(i));
-                if (Functions.areEqual(switchVal, caseVal)) {
-                    return store.resolveExpression(args.get(i + 1));
-                }
-            }
+        ValueArgs(Object[] values) { this.values = values; }
 
-            return hasDefault ? store.resolveExpression(args.get(args.size() - 1)) : null;
-        }
+        @Override public int size() { return values.length; }
+        @Override public Object get(int i) { return values[i]; }
+    }
 
-        // Normal functions evaluate all args
-        java.util.ArrayList<Object> vals = new java.util.ArrayList<>(args.size());
-        for (Expression e : args) {
-            vals.add(store.resolveExpression(e));
+    static final class LazyArgs implements FunctionArgs {
+        private final Expression[] exprs;
+        private final EvaluationContext ctx;
+
+        LazyArgs(Expression[] exprs, EvaluationContext ctx) {
+            this.exprs = exprs;
+            this.ctx = ctx;
         }
-        return Functions.invoke(name, vals);
+
+        @Override public int size() { return exprs.length; }
+        @Override public Object get(int i) { return exprs[i].eval(ctx); }
+
+        Expression[] expressions() { return exprs; }
+        EvaluationContext context() { return ctx; }
     }
 }
@@ -1,119 +1,211 @@
 package variable;
 
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.Base64;
+import java.util.function.BinaryOperator;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.IntPredicate;
 
 final class Functions {
 
-    static Object invoke(String n, List<Object> a) {
-        switch (n) {
+    private static final int V = TemplateFunction.VARARGS;
 
-            // ===== String =====
-            case "TRIM": return s(a,0).trim();
-            case "LTRIM": return s(a,0).replaceAll("^\\s+","");
-            case "RTRIM": return s(a,0).replaceAll("\\s+$","");
-            case "UPPER": return s(a,0).toUpperCase();
-            case "LOWER": return s(a,0).toLowerCase();
+    // Builtins FunctionExpression short-circuits itself; matched by identity,
+    // so a provider registering its own IF or NVL gets its own called
+    static final TemplateFunction IF = lazy("IF", 3, 3, a -> truthy(a.get(0)) ? a.get(1) : a.get(2));
 
-            case "CAPITALCASE": {
-                String x = s(a,0);
-                return x.isEmpty() ? x : Character.toUpperCase(x.charAt(0)) + x.substring(1).toLowerCase();
-            }
+    static final TemplateFunction NVL = lazy("NVL", 2, 2, a -> {
+        Object v = a.get(0);
+        return v != null ? v : a.get(1);
+    });
 
-            case "CAMELCASE": {
-                String in = s(a,0);
-                if (in.isBlank()) return "";
-                String[] p = in.split("[_\\s-]+");
-                StringBuilder sb = new StringBuilder(p[0].toLowerCase());
-                for (int i=1;i<p.length;i++) {
-                    if (p[i].isEmpty()) continue;
-                    sb.append(Character.toUpperCase(p[i].charAt(0)))
-                      .append(p[i].substring(1).toLowerCase());
-                }
-                return sb.toString();
+    static final TemplateFunction COALESCE = lazy("COALESCE", 0, V, a -> {
+        for (int i = 0; i < a.size(); i++) {
+            Object v = a.get(i);
+            if (v != null) return v;
+        }
+        return null;
+    });
+
+    // Inlined by SqlPlan instead of bound
+    static final TemplateFunction IDENT = fn("IDENT", 1, 1, a -> SqlPlan.checkIdentifier(s(a,0)));
+
+    static List<TemplateFunction> builtins() {
+        List<TemplateFunction> f = new ArrayList<>();
+
+        // ===== String =====
+        f.add(fn("TRIM", 1, 1, a -> s(a,0).trim()));
+        f.add(fn("LTRIM", 1, 1, a -> s(a,0).replaceAll("^\\s+","")));
+        f.add(fn("RTRIM", 1, 1, a -> s(a,0).replaceAll("\\s+$","")));
+        f.add(fn("UPPER", 1, 1, a -> s(a,0).toUpperCase()));
+        f.add(fn("LOWER", 1, 1, a -> s(a,0).toLowerCase()));
+
+        f.add(fn("CAPITALCASE", 1, 1, a -> {
+            String x = s(a,0);
+            return x.isEmpty() ? x : Character.toUpperCase(x.charAt(0)) + x.substring(1).toLowerCase();
+        }));
+
+        f.add(fn("CAMELCASE", 1, 1, a -> {
+            String in = s(a,0);
+            if (in.isBlank()) return "";
+            String[] p = in.split("[_\\s-]+");
+            StringBuilder sb = new StringBuilder(p[0].toLowerCase());
+            for (int i=1;i<p.length;i++) {
+                if (p[i].isEmpty()) continue;
+                sb.append(Character.toUpperCase(p[i].charAt(0)))
+                  .append(p[i].substring(1).toLowerCase());
             }
-
-            case "SUBSTR": {
-                String in = s(a,0);
-                int start = i(a,1);
-                int end = (a.size() > 2) ? i(a,2) : in.length();
-                start = Math.max(0, Math.min(start, in.length()));
-                end = Math.max(0, Math.min(end, in.length()));
-                if (end < start) return "";
-                return in.substring(start, end);
+            return sb.toString();
+        }));
+
+        f.add(fn("SUBSTR", 2, 3, a -> {
+            String in = s(a,0);
+            int start = i(a,1);
+            int end = (a.size() > 2) ? i(a,2) : in.length();
+            start = Math.max(0, Math.min(start, in.length()));
+            end = Math.max(0, Math.min(end, in.length()));
+            if (end < start) return "";
+            return in.substring(start, end);
+        }));
+
+        f.add(fn("REPLACE", 3, 3, a -> s(a,0).replace(s(a,1), s(a,2))));
+        f.add(fn("LENGTH", 1, 1, a -> s(a,0).length()));
+        f.add(fn("CONTAINS", 2, 2, a -> contains(a.get(0), a.get(1), false)));
+        f.add(fn("CONTAINS_IGNORE_CASE", 2, 2, a -> contains(a.get(0), a.get(1), true)));
+
+        // ===== Numeric basic =====
+        f.add(arithmetic("ADD", 2, (x,y) -> x+y, BigDecimal::add));
+        f.add(arithmetic("SUB", 2, (x,y) -> x-y, BigDecimal::subtract));
+        f.add(arithmetic("MUL", 2, (x,y) -> x*y, BigDecimal::multiply));
+        f.add(arithmetic("DIV", 2, (x,y) -> x/y, (x,y) -> x.divide(y, MathContext.DECIMAL128)));
+        f.add(arithmetic("MAX", 2, Math::max, BigDecimal::max));
+        f.add(arithmetic("MIN", 2, Math::min, BigDecimal::min));
+
+        // ===== Numeric enhanced =====
+        f.add(arithmetic("ABS", 1, (x,y) -> Math.abs(x), (x,y) -> x.abs()));
+        f.add(arithmetic("CEIL", 1, (x,y) -> Math.ceil(x), (x,y) -> x.setScale(0, RoundingMode.CEILING)));
+        f.add(arithmetic("FLOOR", 1, (x,y) -> Math.floor(x), (x,y) -> x.setScale(0, RoundingMode.FLOOR)));
+        f.add(arithmetic("POW", 2, Math::pow, Functions::pow));
+        f.add(arithmetic("MOD", 2, (x,y) -> x % y, BigDecimal::remainder));
+
+        // ROUND(num, precision); exact mode rounds half away from zero
+        f.add(new Arithmetic("ROUND", 1, 2, (num, p) -> {
+            double factor = Math.pow(10, (int) Math.round(p));
+            return Math.round(num * factor) / factor;
+        }, (num, p) -> num.setScale((int) Math.round(p.doubleValue()), RoundingMode.HALF_UP)));
+
+        // ===== Conditional helpers (predicates) =====
+        f.add(fn("ISEQUAL", 2, 2, a -> areEqual(a.get(0), a.get(1))));
+        f.add(fn("NOTEQUAL", 2, 2, a -> !areEqual(a.get(0), a.get(1))));
+        f.add(fn("ISNULL", 1, 1, a -> a.get(0) == null));
+        f.add(fn("ISNOTNULL", 1, 1, a -> a.get(0) != null));
+        f.add(fn("ISBLANK", 1, 1, a -> s(a,0).isBlank()));
+        f.add(fn("ISNOTBLANK", 1, 1, a -> !s(a,0).isBlank()));
+        f.add(fn("ISTRUE", 1, 1, a -> truthy(a.get(0))));
+        f.add(fn("ISFALSE", 1, 1, a -> !truthy(a.get(0))));
+
+        f.add(new Comparison("ISGREATERTHAN", c -> c > 0));
+        f.add(new Comparison("ISLESSTHAN", c -> c < 0));
+        f.add(new Comparison("ISGREATEROREQUAL", c -> c >= 0));
+        f.add(new Comparison("ISLESSOREQUAL", c -> c <= 0));
+
+        // ===== Short-circuit (lazy) =====
+        f.add(IF);
+
+        f.add(lazy("AND", 0, V, a -> {
+            for (int i = 0; i < a.size(); i++) {
+                if (!truthy(a.get(i))) return false;
             }
+            return true;
+        }));
 
-            case "REPLACE": return s(a,0).replace(s(a,1), s(a,2));
-            case "LENGTH": return s(a,0).length();
-
-            // ===== Numeric basic =====
-            case "ADD": return d(a,0)+d(a,1);
-            case "SUB": return d(a,0)-d(a,1);
-            case "MUL": return d(a,0)*d(a,1);
-            case "DIV": return d(a,0)/d(a,1);
-            case "MAX": return Math.max(d(a,0),d(a,1));
-            case "MIN": return Math.min(d(a,0),d(a,1));
-
-            // ===== Numeric enhanced =====
-            case "ABS": return Math.abs(d(a,0));
-            case "CEIL": return Math.ceil(d(a,0));
-            case "FLOOR": return Math.floor(d(a,0));
-            case "POW": return Math.pow(d(a,0), d(a,1));
-            case "MOD": return d(a,0) % d(a,1);
-
-            // ROUND(num, precision)
-            case "ROUND": {
-                double num = d(a,0);
-                int precision = (a.size() > 1) ? (int) Math.round(d(a,1)) : 0;
-                double factor = Math.pow(10, precision);
-                return Math.round(num * factor) / factor;
+        f.add(lazy("OR", 0, V, a -> {
+            for (int i = 0; i < a.size(); i++) {
+                if (truthy(a.get(i))) return true;
             }
+            return false;
+        }));
+
+        f.add(lazy("NOT", 1, 1, a -> !truthy(a.get(0))));
+        f.add(lazy("IN", 2, V, a -> in(a)));
+        f.add(lazy("NOT_IN", 2, V, a -> !in(a)));
 
-            // ===== Conditional helpers (predicates) =====
-            case "ISEQUAL": return areEqual(a0(a), a1(a));
-            case "NOTEQUAL": return !areEqual(a0(a), a1(a));
-            case "ISNULL": return a0(a) == null;
-            case "ISNOTNULL": return a0(a) != null;
-            case "ISBLANK": return s(a,0).isBlank();
-            case "ISNOTBLANK": return !s(a,0).isBlank();
-            case "ISTRUE": return truthy(a0(a));
-            case "ISFALSE": return !truthy(a0(a));
-
-            case "ISGREATERTHAN": return d(a,0) > d(a,1);
-            case "ISLESSTHAN": return d(a,0) < d(a,1);
-            case "ISGREATEROREQUAL": return d(a,0) >= d(a,1);
-            case "ISLESSOREQUAL": return d(a,0) <= d(a,1);
-
-            // ===== Null/default =====
-            case "NVL": return a0(a)!=null ? a0(a) : a1(a);
-            case "COALESCE": return a.stream().filter(Objects::nonNull).findFirst().orElse(null);
-            case "DEFAULT_IF_BLANK": return s(a,0).isBlank() ? (a.size()>1?a.get(1):"") : s(a,0);
-
-            // ===== Date =====
-            case "NOW": return new Date();
-            case "FORMAT_DATE": {
-                Object dt = a0(a);
-                if (dt == null) return "";
-                Date date = (dt instanceof Date) ? (Date) dt : new Date(Long.parseLong(String.valueOf(dt)));
-                return new SimpleDateFormat(s(a,1)).format(date);
+        // SWITCH(value, case1, result1, ..., default?)
+        f.add(lazy("SWITCH", 3, V, a -> {
+            Object switchVal = a.get(0);
+
+            int remaining = a.size() - 1;
+            boolean hasDefault = (remaining % 2 == 1);
+            int pairsEnd = a.size() - (hasDefault ? 1 : 0);
+
+            for (int i = 1; i < pairsEnd; i += 2) {
+                if (areEqual(switchVal, a.get(i))) return a.get(i + 1);
+            }
+            return hasDefault ? a.get(a.size() - 1) : null;
+        }));
+
+        // ===== Null/default (lazy: fallbacks are only evaluated when used) =====
+        f.add(NVL);
+        f.add(COALESCE);
+        f.add(lazy("DEFAULT_IF_BLANK", 1, 2, a -> {
+            String v = s(a,0);
+            return v.isBlank() ? (a.size()>1?a.get(1):"") : v;
+        }));
+
+        // ===== Date =====
+        f.add(impure("NOW", 0, 0, a -> new Date()));
+        f.add(fn("FORMAT_DATE", 2, 2, a -> {
+            Object dt = a.get(0);
+            if (dt == null) return "";
+            Date date = (dt instanceof Date) ? (Date) dt : new Date(Long.parseLong(String.valueOf(dt)));
+            return new SimpleDateFormat(s(a,1)).format(date);
+        }));
+
+        // ===== Collections =====
+        f.add(fn("SIZE", 1, 1, a -> size(a.get(0))));
+        f.add(fn("FIRST", 1, 1, a -> first(a.get(0))));
+        f.add(fn("LAST", 1, 1, a -> last(a.get(0))));
+        f.add(fn("JOIN", 1, 2, a -> join(a.get(0), s(a,1))));
+
+        // ===== Row pipelines: FXN.SUM(FXN.FILTER(${T.Rows}, FXN.ISEQUAL(row.status, 'A')), row.amount) =====
+        f.add(pipeline("FILTER", 2, 2, (a, ctx) -> new RowView(a[0].eval(ctx), a[1], ctx, true)));
+        f.add(pipeline("MAP", 2, 2, (a, ctx) -> new RowView(a[0].eval(ctx), a[1], ctx, false)));
+        f.add(pipeline("SUM", 1, 2, Functions::sum));
+        f.add(pipeline("COUNT", 1, 2, (a, ctx) -> {
+            int n = 0;
+            Rows rows = new Rows(a[0].eval(ctx), ctx);
+            while (rows.next()) {
+                if (a.length == 1 || a[1].evalBoolean(rows.ctx)) n++;
             }
+            return n;
+        }));
+        // GROUP(rows, key[, value]) -> {key: [row or value, ...]} in first-seen key order
+        f.add(pipeline("GROUP", 2, 3, (a, ctx) -> {
+            Map<Object, List<Object>> groups = new LinkedHashMap<>();
+            Rows rows = new Rows(a[0].eval(ctx), ctx);
+            while (rows.next()) {
+                Object value = a.length > 2 ? a[2].eval(rows.ctx) : rows.row;
+                groups.computeIfAbsent(a[1].eval(rows.ctx), k -> new ArrayList<>()).add(value);
+            }
+            return groups;
+        }));
 
-            // ===== Collections =====
-            case "SIZE": return size(a0(a));
-            case "FIRST": return first(a0(a));
-            case "LAST": return last(a0(a));
-            case "JOIN": return join(a0(a), s(a,1));
+        // ===== SQL: in resolveSql, FXN.IDENT(...) is inlined rather than bound =====
+        f.add(IDENT);
 
-            // ===== Utils =====
-            case "BASE64_ENCODE":
-                return Base64.getEncoder().encodeToString(s(a,0).getBytes(StandardCharsets.UTF_8));
-            case "BASE64_DECODE":
-                return new String(Base64.getDecoder().decode(s(a,0)), StandardCharsets.UTF_8);
-            case "UUID": return UUID.randomUUID().toString();
-        }
-        throw new IllegalArgumentException("Unknown FXN: " + n);
+        // ===== Utils =====
+        f.add(fn("BASE64_ENCODE", 1, 1, a ->
+                Base64.getEncoder().encodeToString(s(a,0).getBytes(StandardCharsets.UTF_8))));
+        f.add(fn("BASE64_DECODE", 1, 1, a ->
+                new String(Base64.getDecoder().decode(s(a,0)), StandardCharsets.UTF_8)));
+        f.add(impure("UUID", 0, 0, a -> UUID.randomUUID().toString()));
+
+        return f;
     }
 
     // ===== Public helpers used by FunctionExpression =====
@@ -127,6 +219,27 @@ final class Functions {
         return Boolean.parseBoolean(s);
     }
 
+    /** Number as parsed by the numeric builtins; null and non-numeric text throw NumberFormatException. */
+    static double toNumber(Object o) {
+        if (o instanceof Number) return ((Number) o).doubleValue();
+        return Double.parseDouble(Objects.toString(o, ""));
+    }
+
+    static long toLong(Object o) {
+        if (o instanceof Number) return ((Number) o).longValue();
+        return Long.parseLong(Objects.toString(o, "").trim());
+    }
+
+    /** Exact value of {@code o}; doubles convert through their shortest decimal form, so 0.1 stays 0.1. */
+    static BigDecimal toDecimal(Object o) {
+        if (o instanceof BigDecimal) return (BigDecimal) o;
+        if (o instanceof Double || o instanceof Float) return BigDecimal.valueOf(((Number) o).doubleValue());
+        if (o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte) {
+            return BigDecimal.valueOf(((Number) o).longValue());
+        }
+        return new BigDecimal(Objects.toString(o, "").trim());
+    }
+
     static boolean areEqual(Object a, Object b) {
         if (a == b) return true;
         if (a == null || b == null) return false;
@@ -139,14 +252,265 @@ final class Functions {
         return Objects.equals(String.valueOf(a), String.valueOf(b));
     }
 
+    // ===== Built-in definitions =====
+
+    @FunctionalInterface
+    private interface Body {
+        Object apply(FunctionArgs a);
+    }
+
+    private static TemplateFunction fn(String name, int min, int max, Body body) {
+        return new Builtin(name, min, max, false, true, body);
+    }
+
+    private static TemplateFunction lazy(String name, int min, int max, Body body) {
+        return new Builtin(name, min, max, true, true, body);
+    }
+
+    private static TemplateFunction impure(String name, int min, int max, Body body) {
+        return new Builtin(name, min, max, false, false, body);
+    }
+
+    @FunctionalInterface
+    private interface PipelineBody {
+        Object apply(Expression[] args, EvaluationContext ctx);
+    }
+
+    private static TemplateFunction pipeline(String name, int min, int max, PipelineBody body) {
+        return new Pipeline(name, min, max, body);
+    }
+
+    private static TemplateFunction arithmetic(String name, int arity,
+                                               DoubleBinaryOperator op, BinaryOperator<BigDecimal> exact) {
+        return new Arithmetic(name, arity, arity, op, exact);
+    }
+
+    private static class Builtin implements TemplateFunction {
+        private final String name;
+        private final int min;
+        private final int max;
+        private final boolean lazy;
+        private final boolean pure;
+        private final Body body;
+
+        Builtin(String name, int min, int max, boolean lazy, boolean pure, Body body) {
+            this.name = name;
+            this.min = min;
+            this.max = max;
+            this.lazy = lazy;
+            this.pure = pure;
+            this.body = body;
+        }
+
+        @Override public String name() { return name; }
+        @Override public int minArgs() { return min; }
+        @Override public int maxArgs() { return max; }
+        @Override public boolean isLazy() { return lazy; }
+        @Override public boolean isPure() { return pure; }
+        @Override public Object apply(FunctionArgs args) { return body.apply(args); }
+
+        @Override public String toString() { return "FXN." + name; }
+    }
+
+    private static final class Arithmetic extends Builtin implements NumericFunction {
+        private final DoubleBinaryOperator op;
+        private final BinaryOperator<BigDecimal> exact;
+
+        Arithmetic(String name, int min, int max, DoubleBinaryOperator op, BinaryOperator<BigDecimal> exact) {
+            super(name, min, max, false, true, null);
+            this.op = op;
+            this.exact = exact;
+        }
+
+        @Override public double applyAsDouble(double x, double y) { return op.applyAsDouble(x, y); }
+        @Override public BigDecimal applyExact(BigDecimal x, BigDecimal y) { return exact.apply(x, y); }
+
+        @Override
+        public Object apply(FunctionArgs a) {
+            return applyAsDouble(d(a,0), a.size() > 1 ? d(a,1) : 0);
+        }
+    }
+
+    private static final class Pipeline extends Builtin implements CollectionFunction {
+        private final PipelineBody body;
+
+        Pipeline(String name, int min, int max, PipelineBody body) {
+            super(name, min, max, true, true, null);
+            this.body = body;
+        }
+
+        @Override public Object apply(Expression[] args, EvaluationContext ctx) { return body.apply(args, ctx); }
+        // Builtin's value-based apply would win over the interface's
+        @Override public Object apply(FunctionArgs args) { return CollectionFunction.super.apply(args); }
+    }
+
+    private static final class Comparison extends Builtin implements ComparisonFunction {
+        private final IntPredicate order;
+
+        Comparison(String name, IntPredicate order) {
+            super(name, 2, 2, false, true, null);
+            this.order = order;
+        }
+
+        @Override
+        public boolean test(double x, double y) {
+            if (Double.isNaN(x) || Double.isNaN(y)) return false;
+            return order.test(x < y ? -1 : (x > y ? 1 : 0));
+        }
+
+        @Override
+        public boolean testExact(BigDecimal x, BigDecimal y) {
+            return order.test(x.compareTo(y));
+        }
+
+        @Override
+        public Object apply(FunctionArgs a) {
+            return test(d(a,0), d(a,1));
+        }
+    }
+
+    // ===== Row pipelines =====
+
+    /**
+     * Cursor over a collection that binds each element as {@code row} in its
+     * own reusable frame. One per pass, never shared between threads.
+     */
+    private static final class Rows {
+        final EvaluationContext ctx;
+        private final Iterator<?> it;
+        Object row;
+
+        Rows(Object source, EvaluationContext outer) {
+            this.ctx = outer.withReusableFrame(CollectionFunction.ROW_SLOT);
+            this.it = elements(source);
+        }
+
+        boolean next() {
+            if (!it.hasNext()) return false;
+            row = it.next();
+            ctx.rebind(row);
+            return true;
+        }
+    }
+
+    /**
+     * Lazy FILTER/MAP result. Nothing runs until it is iterated, so stages
+     * chained into SUM, COUNT, JOIN, ... are evaluated element by element in
+     * one pass over the source.
+     */
+    private static final class RowView implements Iterable<Object> {
+        private final Object source;
+        private final Expression fn;
+        private final EvaluationContext ctx;
+        private final boolean filter;
+
+        RowView(Object source, Expression fn, EvaluationContext ctx, boolean filter) {
+            this.source = source;
+            this.fn = fn;
+            this.ctx = ctx;
+            this.filter = filter;
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            Rows rows = new Rows(source, ctx);
+            return new Iterator<Object>() {
+                private Object next;
+                private boolean ready;
+
+                @Override
+                public boolean hasNext() {
+                    while (!ready && rows.next()) {
+                        if (!filter) {
+                            next = fn.eval(rows.ctx);
+                            ready = true;
+                        } else if (fn.evalBoolean(rows.ctx)) {
+                            next = rows.row;
+                            ready = true;
+                        }
+                    }
+                    return ready;
+                }
+
+                @Override
+                public Object next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    ready = false;
+                    return next;
+                }
+            };
+        }
+
+        /** Renders like a List when a stage is used as the template's result. */
+        @Override
+        public String toString() {
+            StringJoiner sj = new StringJoiner(", ", "[", "]");
+            for (Object o : this) sj.add(String.valueOf(o));
+            return sj.toString();
+        }
+    }
+
+    private static Object sum(Expression[] a, EvaluationContext ctx) {
+        boolean exact = ctx.store().numericMode() == VariableStore.NumericMode.EXACT_DECIMAL;
+        double total = 0;
+        BigDecimal exactTotal = BigDecimal.ZERO;
+
+        Rows rows = new Rows(a[0].eval(ctx), ctx);
+        while (rows.next()) {
+            // nulls are skipped, as in SQL
+            Object v = a.length > 1 ? a[1].eval(rows.ctx) : rows.row;
+            if (v == null) continue;
+            if (exact) exactTotal = exactTotal.add(toDecimal(v));
+            else total += toNumber(v);
+        }
+        return exact ? exactTotal : (Object) total;
+    }
+
+    private static Iterator<?> elements(Object source) {
+        if (source == null) return Collections.emptyIterator();
+        if (source instanceof Iterable) return ((Iterable<?>) source).iterator();
+        if (source instanceof Object[]) return Arrays.asList((Object[]) source).iterator();
+        if (source.getClass().isArray()) {
+            int len = java.lang.reflect.Array.getLength(source);
+            List<Object> l = new ArrayList<>(len);
+            for (int i = 0; i < len; i++) l.add(java.lang.reflect.Array.get(source, i));
+            return l.iterator();
+        }
+        return Collections.singletonList(source).iterator();
+    }
+
     // ===== Internal helpers =====
 
-    private static Object a0(List<Object> a){ return a.size()>0?a.get(0):null; }
-    private static Object a1(List<Object> a){ return a.size()>1?a.get(1):null; }
+    private static String s(FunctionArgs a,int i){ return ValueWriter.toString(a.size()>i?a.get(i):""); }
+    private static int i(FunctionArgs a,int i){ return Math.toIntExact(toLong(a.size()>i?a.get(i):"")); }
+    private static double d(FunctionArgs a,int i){ return toNumber(a.size()>i?a.get(i):""); }
+
+    private static BigDecimal pow(BigDecimal x, BigDecimal y) {
+        if (y.stripTrailingZeros().scale() <= 0 && y.abs().compareTo(BigDecimal.valueOf(999)) <= 0) {
+            return x.pow(y.intValue(), MathContext.DECIMAL128).stripTrailingZeros();
+        }
+        return BigDecimal.valueOf(Math.pow(x.doubleValue(), y.doubleValue()));
+    }
 
-    private static String s(List<Object>a,int i){ return Objects.toString(a.size()>i?a.get(i):"", ""); }
-    private static int i(List<Object>a,int i){ return Integer.parseInt(s(a,i)); }
-    private static double d(List<Object>a,int i){ return Double.parseDouble(s(a,i)); }
+    private static boolean in(FunctionArgs a) {
+        Object val = a.get(0);
+        for (int i = 1; i < a.size(); i++) {
+            if (areEqual(val, a.get(i))) return true;
+        }
+        return false;
+    }
+
+    private static boolean contains(Object textObj, Object subObj, boolean ignoreCase) {
+        if (textObj == null || subObj == null) return false;
+
+        String text = String.valueOf(textObj);
+        String sub  = String.valueOf(subObj);
+        if (ignoreCase) {
+            text = text.toLowerCase();
+            sub = sub.toLowerCase();
+        }
+        return text.contains(sub);
+    }
 
     private static boolean isNumericLike(Object o) {
         if (o instanceof Number) return true;
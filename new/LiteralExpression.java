@@ -1,5 +1,7 @@
 package variable;
 
+import java.util.Objects;
+
 final class LiteralExpression implements Expression {
 
     private final Object value;
@@ -9,7 +11,22 @@ final class LiteralExpression implements Expression {
     }
 
     @Override
-    public Object eval(VariableStore store) {
+    public Object eval(EvaluationContext ctx) {
         return value;
     }
+
+    Object value() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof LiteralExpression
+                && Objects.equals(value, ((LiteralExpression) o).value);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(value);
+    }
 }
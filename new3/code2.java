@@ -133,36 +133,45 @@ public class CallStoredProcedureTaskProcessor implements TaskProcessor {
         return finalMap;
     }
 
+    /**
+     * Shortcuts are registered lazily: most workflows read one or none of
+     * them, so each is only computed when a template first references it.
+     */
     private void addResultSetShortcuts(String taskPrefix,
                                        Map<String, Object> resultSetMap,
                                        VariableStore varstore) {
 
         List<Map.Entry<String, Object>> datasetEntries = extractDatasetEntries(resultSetMap);
 
-        // first resultset shortcut
-        List<Map<String, Object>> firstResultSet = datasetEntries.size() >= 1
-                ? castToRowList(datasetEntries.get(0).getValue())
-                : Collections.emptyList();
+        addResultSetShortcuts(taskPrefix + "FirstResultSet", datasetEntries, 0, varstore);
+        addResultSetShortcuts(taskPrefix + "SecondResultSet", datasetEntries, 1, varstore);
 
-        varstore.addVariable("${" + taskPrefix + "FirstResultSet}", firstResultSet);
-        varstore.addVariable("${" + taskPrefix + "FirstResultSetCount}", firstResultSet.size());
-        varstore.addVariable("${" + taskPrefix + "FirstResultSetColumns}", extractColumns(firstResultSet));
-        varstore.addVariable("${" + taskPrefix + "FirstResultSetFirstRow}", firstResultSet.isEmpty() ? Collections.emptyMap() : firstResultSet.get(0));
-        varstore.addVariable("${" + taskPrefix + "FirstResultSetLastRow}", firstResultSet.isEmpty() ? Collections.emptyMap() : firstResultSet.get(firstResultSet.size() - 1));
+        // optional alias if you still want MainResultSet as first resultset
+        varstore.addLazyVariable("${" + taskPrefix + "MainResultSet}", () -> resultSetAt(datasetEntries, 0));
+    }
 
-        // second resultset shortcut
-        List<Map<String, Object>> secondResultSet = datasetEntries.size() >= 2
-                ? castToRowList(datasetEntries.get(1).getValue())
-                : Collections.emptyList();
+    private void addResultSetShortcuts(String name,
+                                       List<Map.Entry<String, Object>> datasetEntries,
+                                       int index,
+                                       VariableStore varstore) {
 
-        varstore.addVariable("${" + taskPrefix + "SecondResultSet}", secondResultSet);
-        varstore.addVariable("${" + taskPrefix + "SecondResultSetCount}", secondResultSet.size());
-        varstore.addVariable("${" + taskPrefix + "SecondResultSetColumns}", extractColumns(secondResultSet));
-        varstore.addVariable("${" + taskPrefix + "SecondResultSetFirstRow}", secondResultSet.isEmpty() ? Collections.emptyMap() : secondResultSet.get(0));
-        varstore.addVariable("${" + taskPrefix + "SecondResultSetLastRow}", secondResultSet.isEmpty() ? Collections.emptyMap() : secondResultSet.get(secondResultSet.size() - 1));
+        varstore.addLazyVariable("${" + name + "}", () -> resultSetAt(datasetEntries, index));
+        varstore.addLazyVariable("${" + name + "Count}", () -> resultSetAt(datasetEntries, index).size());
+        varstore.addLazyVariable("${" + name + "Columns}", () -> extractColumns(resultSetAt(datasetEntries, index)));
+        varstore.addLazyVariable("${" + name + "FirstRow}", () -> {
+            List<Map<String, Object>> rows = resultSetAt(datasetEntries, index);
+            return rows.isEmpty() ? Collections.emptyMap() : rows.get(0);
+        });
+        varstore.addLazyVariable("${" + name + "LastRow}", () -> {
+            List<Map<String, Object>> rows = resultSetAt(datasetEntries, index);
+            return rows.isEmpty() ? Collections.emptyMap() : rows.get(rows.size() - 1);
+        });
+    }
 
-        // optional alias if you still want MainResultSet as first resultset
-        varstore.addVariable("${" + taskPrefix + "MainResultSet}", firstResultSet);
+    private List<Map<String, Object>> resultSetAt(List<Map.Entry<String, Object>> datasetEntries, int index) {
+        return datasetEntries.size() > index
+                ? castToRowList(datasetEntries.get(index).getValue())
+                : Collections.emptyList();
     }
 
     /**
@@ -1,5 +1,6 @@
 package variable;
 
+import java.lang.ref.WeakReference;
 import java.util.*;
 
 public class VariableStoreTestDriver {
@@ -102,9 +103,97 @@ public class VariableStoreTestDriver {
             System.out.println("[EXPECTED ERROR] " + e.getMessage());
         }
 
+        // 1️⃣2️⃣ SQL rendering: values become bind parameters
+        store.setMissingVariablePolicy(
+                VariableStore.MissingVariablePolicy.REPLACE_WITH_EMPTY
+        );
+        store.addVariable("SYSTEM", "Ids", List.of(1, 2, 3));
+        store.addVariable("SYSTEM", "Table", "orders");
+        store.addVariable("SYSTEM", "Col", "odd name");
+        store.addVariable("SYSTEM", "Evil", "x; DROP TABLE orders");
+        store.addVariable("SYSTEM", "Evil2", "a\\\" OR 1=1 -- ");
+
+        printSql(store, "SQL IN-list",
+                "SELECT * FROM t WHERE id IN (${SYSTEM.Ids})");
+
+        printSql(store, "SQL NOT IN-list",
+                "SELECT * FROM t WHERE id NOT IN (${SYSTEM.Ids})");
+
+        printSql(store, "SQL VALUES (no expansion)",
+                "INSERT INTO t (ids) VALUES (${SYSTEM.Ids})");
+
+        printSql(store, "SQL quoted literal",
+                "SELECT * FROM t WHERE name = 'it''s ${SYSTEM.User.name}'");
+
+        printSql(store, "SQL comment",
+                "SELECT 1 /* ${SYSTEM.Evil} */ FROM t");
+
+        printSql(store, "SQL quoted identifier",
+                "SELECT \"${SYSTEM.Col}\" FROM t");
+
+        printSql(store, "SQL folded constant",
+                "SELECT * FROM t WHERE a = ${FXN.UPPER('abc')}");
+
+        printSql(store, "SQL folded quote text",
+                "SELECT * FROM t WHERE a = ${FXN.IF(true, \"x' OR '1'='1\", 'n')} AND b = ${SYSTEM.Evil}");
+
+        try {
+            printSql(store, "SQL quoted identifier (unsafe)",
+                    "SELECT \"${SYSTEM.Evil2}\" FROM t");
+        } catch (Exception e) {
+            System.out.println("[EXPECTED ERROR] " + e.getMessage());
+        }
+
+        printSql(store, "SQL IDENT",
+                "SELECT * FROM ${FXN.IDENT(${SYSTEM.Table})} WHERE x = ${SYSTEM.Evil}");
+
+        try {
+            printSql(store, "SQL IDENT (unsafe)",
+                    "SELECT * FROM ${FXN.IDENT(${SYSTEM.Evil})}");
+        } catch (Exception e) {
+            System.out.println("[EXPECTED ERROR] " + e.getMessage());
+        }
+
+        // 1️⃣3️⃣ Discarded stores must not stay reachable through this thread
+        List<WeakReference<VariableStore>> discarded = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            VariableStore run = new VariableStore();
+            run.addVariable("RUN", "Id", i);
+            try (var scope = run.withTempVariable("random.Row", row)) {
+                run.resolveVariables("${RUN.Id}-${random.Row.id}");
+            }
+            run.resolveVariables("${RUN.Id}");
+            discarded.add(new WeakReference<>(run));
+        }
+        System.out.println(String.format("[%-25s] %d/50", "Discarded stores retained", retained(discarded)));
+
         System.out.println("========== END ==========");
     }
 
+    private static int retained(List<? extends WeakReference<?>> refs) {
+        int alive = refs.size();
+        for (int attempt = 0; attempt < 10 && alive > 0; attempt++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            alive = 0;
+            for (WeakReference<?> r : refs) if (r.get() != null) alive++;
+        }
+        return alive;
+    }
+
+    private static void printSql(VariableStore store, String label, String sql) {
+        SqlStatement stmt = store.resolveSql(sql);
+        System.out.println(String.format(
+                "[%-25s] %s -> %s %s",
+                label, sql, stmt.getSql(), stmt.getParameters()
+        ));
+    }
+
     private static void print(VariableStore store, String label, String expr) {
         String result = store.resolveVariables(expr);
         System.out.println(String.format(